@@ -1,11 +1,51 @@
 package demo.simplerest;
 
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rejected input, carrying one error per offending field. Routine enough that it records no stack trace:
+ * it is thrown for every bad request and only its errors ever reach the client.
+ */
 public class InvalidDataException extends Exception {
+    private final List<FieldError> errors;
+
     public InvalidDataException() {
-        super();
+        this(Collections.emptyList());
     }
 
     public InvalidDataException(String msg) {
-        super(msg);
+        this(null, msg);
+    }
+
+    public InvalidDataException(String field, String msg) {
+        this(Collections.singletonList(new FieldError(field, msg)));
+    }
+
+    public InvalidDataException(List<FieldError> errors) {
+        super(errors.isEmpty() ? null : errors.get(0).getMessage(), null, false, false);
+        this.errors = errors;
+    }
+
+    public List<FieldError> getErrors() {
+        return errors;
+    }
+
+    public static class FieldError {
+        private final String field;
+        private final String message;
+
+        public FieldError(String field, String message) {
+            this.field = field;
+            this.message = message;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public String getMessage() {
+            return message;
+        }
     }
 }
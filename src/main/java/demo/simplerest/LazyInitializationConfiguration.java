@@ -0,0 +1,23 @@
+package demo.simplerest;
+
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Marks every bean definition lazy, so startup only creates what the server and the first requests need.
+ * Boot 1.5 has no {@code spring.main.lazy-initialization}, this does the same for {@code users.startup.lazy=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.startup.lazy")
+public class LazyInitializationConfiguration {
+    @Bean
+    public static BeanFactoryPostProcessor lazyInitializationPostProcessor() {
+        return beanFactory -> {
+            for (String name : beanFactory.getBeanDefinitionNames()) {
+                beanFactory.getBeanDefinition(name).setLazyInit(true);
+            }
+        };
+    }
+}
@@ -2,11 +2,16 @@ package demo.simplerest;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class SimpleRestApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(SimpleRestApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(SimpleRestApplication.class, args);
+        // training runs for the class data sharing archive only need the classes loaded during startup
+        if (context.getEnvironment().getProperty("users.startup.exit-after-start", Boolean.class, false)) {
+            context.close();
+        }
     }
 }
@@ -0,0 +1,54 @@
+package demo.simplerest.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for writes to {@code /users}, see {@link WriteAdmissionInterceptor}. With
+ * {@code users.admission.adaptive.enabled} the concurrency limit follows {@code UserRepository} latency,
+ * otherwise it stays at {@code users.admission.max-concurrent-writes}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.admission.enabled")
+public class AdmissionConfiguration extends WebMvcConfigurerAdapter {
+    private final ConcurrencyLimiter writeConcurrencyLimiter;
+    private final WriteAdmissionInterceptor writeAdmissionInterceptor;
+
+    public AdmissionConfiguration(MeterRegistry meterRegistry,
+                                  @Value("${users.admission.rate-per-second:50}") double ratePerSecond,
+                                  @Value("${users.admission.burst:100}") double burst,
+                                  @Value("${users.admission.queue-timeout-ms:200}") long queueTimeoutMillis,
+                                  @Value("${users.admission.max-concurrent-writes:8}") int maxConcurrentWrites,
+                                  @Value("${users.admission.min-concurrent-writes:1}") int minConcurrentWrites,
+                                  @Value("${users.admission.max-queued-writes:100}") int maxQueuedWrites,
+                                  @Value("${users.admission.adaptive.target-latency-ms:20}") long targetLatencyMillis,
+                                  @Value("${users.admission.adaptive.interval-ms:100}") long intervalMillis) {
+        this.writeConcurrencyLimiter = new ConcurrencyLimiter(minConcurrentWrites, maxConcurrentWrites,
+                maxQueuedWrites, targetLatencyMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        this.writeAdmissionInterceptor = new WriteAdmissionInterceptor(writeConcurrencyLimiter,
+                ratePerSecond, burst, queueTimeoutMillis, meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyLimiter writeConcurrencyLimiter() {
+        return writeConcurrencyLimiter;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "users.admission.adaptive.enabled")
+    public RepositoryLatencyAspect repositoryLatencyAspect() {
+        return new RepositoryLatencyAspect(writeConcurrencyLimiter);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(writeAdmissionInterceptor).addPathPatterns("/users/**");
+    }
+}
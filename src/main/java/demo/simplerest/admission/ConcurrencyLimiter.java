@@ -0,0 +1,131 @@
+package demo.simplerest.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps the writes in flight, letting up to {@code maxQueued} more wait for a slot. The cap adapts to the
+ * smoothed latency passed to {@link #observe}: once per {@code adjustInterval} it shrinks by a tenth while the
+ * latency is above {@code targetLatency} and grows by one otherwise, so a database slowed down by a write storm
+ * gets fewer concurrent writes and reads keep their connections.
+ * <p>
+ * {@link #observe} runs after every repository call, so it only takes the lock for the adjustment itself;
+ * the smoothed latency is updated with a compare-and-set.
+ */
+public class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long targetLatencyNanos;
+    private final long adjustIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    // Double bits of the smoothed latency, 0 until the first observation
+    private final AtomicLong smoothedLatencyBits = new AtomicLong();
+    private final AtomicLong adjustedAt = new AtomicLong();
+
+    public ConcurrencyLimiter(int minLimit, int maxLimit, int maxQueued,
+                              long targetLatency, long adjustInterval, TimeUnit unit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.targetLatencyNanos = unit.toNanos(targetLatency);
+        this.adjustIntervalNanos = unit.toNanos(adjustInterval);
+        this.limit = maxLimit;
+    }
+
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (queued >= maxQueued) {
+                return false;
+            }
+            queued++;
+            try {
+                long remaining = unit.toNanos(timeout);
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void observe(long latencyNanos, long now) {
+        long current;
+        double smoothedLatencyNanos;
+        do {
+            current = smoothedLatencyBits.get();
+            smoothedLatencyNanos = current == 0 ? Math.max(1, latencyNanos)
+                    : Double.longBitsToDouble(current) * 0.9 + latencyNanos * 0.1;
+        } while (!smoothedLatencyBits.compareAndSet(current, Double.doubleToRawLongBits(smoothedLatencyNanos)));
+        if (current == 0) {
+            adjustedAt.set(now);
+            return;
+        }
+        long previousAdjustment = adjustedAt.get();
+        // one caller per interval wins the adjustment
+        if (now - previousAdjustment < adjustIntervalNanos || !adjustedAt.compareAndSet(previousAdjustment, now)) {
+            return;
+        }
+        lock.lock();
+        try {
+            int previous = (int) limit;
+            if (smoothedLatencyNanos > targetLatencyNanos) {
+                limit = Math.max(minLimit, limit * 0.9);
+            } else {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            if ((int) limit > previous) {
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
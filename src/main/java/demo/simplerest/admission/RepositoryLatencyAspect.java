@@ -0,0 +1,29 @@
+package demo.simplerest.admission;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Feeds the latency of every {@code UserRepository} call, reads included, to the {@link ConcurrencyLimiter},
+ * so writes are throttled as soon as the database slows down for anyone.
+ */
+@Aspect
+public class RepositoryLatencyAspect {
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    public RepositoryLatencyAspect(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @Around("this(demo.simplerest.repositories.UserRepository)")
+    public Object observe(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            long end = System.nanoTime();
+            concurrencyLimiter.observe(end - start, end);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package demo.simplerest.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allows {@code ratePerSecond} permits on average with bursts of up to {@code burst}, refilled lazily on each call.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double ratePerSecond, double burst, long now) {
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Takes a permit and returns zero, or returns the nanos until one will be available without taking anything.
+     */
+    public synchronized long tryAcquire(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / ratePerNano);
+    }
+}
@@ -0,0 +1,103 @@
+package demo.simplerest.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits {@code POST}, {@code PUT} and {@code DELETE} requests through a {@link TokenBucket} per client and then
+ * the shared {@link ConcurrencyLimiter}, answering 429 with {@code Retry-After} when either says no. The client is
+ * the {@code X-API-Key} header, or the remote address without one. Reads are never held back.
+ */
+public class WriteAdmissionInterceptor extends HandlerInterceptorAdapter {
+    public static final String API_KEY_HEADER = "X-API-Key";
+    private static final String ADMITTED_ATTRIBUTE = WriteAdmissionInterceptor.class.getName() + ".ADMITTED";
+
+    private final Cache<String, TokenBucket> buckets;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final double ratePerSecond;
+    private final double burst;
+    private final long queueTimeoutMillis;
+    private final Counter rateLimited;
+    private final Counter shed;
+
+    public WriteAdmissionInterceptor(ConcurrencyLimiter concurrencyLimiter, double ratePerSecond, double burst,
+                                     long queueTimeoutMillis, MeterRegistry meterRegistry) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        // a client idle long enough to refill its bucket loses nothing when the bucket is dropped
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess((long) Math.ceil(burst / ratePerSecond) + 1, TimeUnit.SECONDS)
+                .maximumSize(100000)
+                .build();
+        this.rateLimited = meterRegistry.counter("users.admission.rejected", "reason", "rate");
+        this.shed = meterRegistry.counter("users.admission.rejected", "reason", "concurrency");
+        meterRegistry.gauge("users.admission.limit", concurrencyLimiter, ConcurrencyLimiter::limit);
+        meterRegistry.gauge("users.admission.in-flight", concurrencyLimiter, ConcurrencyLimiter::inFlight);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException, InterruptedException {
+        // an offloaded handler is dispatched again to write its result; it was admitted the first time
+        if (request.getDispatcherType() == DispatcherType.ASYNC || !isWrite(request.getMethod())) {
+            return true;
+        }
+        long waitNanos = buckets.get(clientOf(request), key -> new TokenBucket(ratePerSecond, burst, System.nanoTime()))
+                .tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            reject(response, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)),
+                    "Rate limit exceeded");
+            return false;
+        }
+        if (!concurrencyLimiter.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            shed.increment();
+            reject(response, 1, "Too many concurrent writes");
+            return false;
+        }
+        request.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        // not called for the first dispatch of an offloaded handler, only once its result has been written
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) != null) {
+            request.removeAttribute(ADMITTED_ATTRIBUTE);
+            concurrencyLimiter.release();
+        }
+    }
+
+    private static boolean isWrite(String method) {
+        return "POST".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+    }
+
+    /**
+     * The client a request is accounted to: its API key, or its remote address without one.
+     */
+    public static String clientOf(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        return apiKey != null && !apiKey.isEmpty() ? "key:" + apiKey : "addr:" + request.getRemoteAddr();
+    }
+
+    private static void reject(HttpServletResponse response, long retryAfterSeconds, String message) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write(message);
+    }
+}
@@ -0,0 +1,50 @@
+package demo.simplerest.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link UserInvalidationBus} between nodes in the same JVM, joined by channel name, for tests and local runs
+ * of several instances. Messages are delivered synchronously, so the other nodes are evicted before the
+ * write returns.
+ */
+@Component
+@ConditionalOnProperty(name = "users.cache.cluster.bus", havingValue = "loopback")
+public class LoopbackInvalidationBus implements UserInvalidationBus {
+    private static final ConcurrentMap<String, List<LoopbackInvalidationBus>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final List<LoopbackInvalidationBus> channel;
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    public LoopbackInvalidationBus(@Value("${users.cache.cluster.name:users}") String channelName) {
+        this.channel = CHANNELS.computeIfAbsent(channelName, name -> new CopyOnWriteArrayList<>());
+        channel.add(this);
+    }
+
+    @PreDestroy
+    public void close() {
+        channel.remove(this);
+    }
+
+    @Override
+    public void publish(long userId) {
+        for (LoopbackInvalidationBus node : channel) {
+            if (node != this) {
+                node.listeners.forEach(listener -> listener.accept(userId));
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(LongConsumer listener) {
+        listeners.add(listener);
+    }
+}
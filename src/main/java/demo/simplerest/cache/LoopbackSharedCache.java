@@ -0,0 +1,53 @@
+package demo.simplerest.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import demo.simplerest.entities.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserSharedCache} shared by the nodes in the same JVM, joined by cluster name. Stands in for a networked
+ * cache in tests and local runs; entries are copies and expire after {@code users.cache.cluster.shared-ttl-seconds},
+ * which bounds how long a value loaded just before a concurrent write can survive here.
+ */
+@Component
+@ConditionalOnProperty(name = "users.cache.cluster.shared", havingValue = "loopback")
+public class LoopbackSharedCache implements UserSharedCache {
+    private static final ConcurrentMap<String, Cache<Long, User>> CACHES = new ConcurrentHashMap<>();
+
+    private final Cache<Long, User> users;
+
+    public LoopbackSharedCache(@Value("${users.cache.cluster.name:users}") String name,
+                               @Value("${users.cache.maximum-size:10000}") long maximumSize,
+                               @Value("${users.cache.cluster.shared-ttl-seconds:60}") long ttlSeconds) {
+        this.users = CACHES.computeIfAbsent(name, key -> Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build());
+    }
+
+    @Override
+    public User get(long id) {
+        User user = users.getIfPresent(id);
+        return user == null ? null : User.copyOf(user);
+    }
+
+    @Override
+    public void put(User user) {
+        User copy = User.copyOf(user);
+        users.asMap().merge(user.getId(), copy, (cached, offered) ->
+                cached.getVersion() != null && offered.getVersion() != null
+                        && cached.getVersion() > offered.getVersion() ? cached : offered);
+    }
+
+    @Override
+    public void evict(long id) {
+        users.invalidate(id);
+    }
+}
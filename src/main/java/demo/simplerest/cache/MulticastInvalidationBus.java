@@ -0,0 +1,88 @@
+package demo.simplerest.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link UserInvalidationBus} over UDP multicast on the local network, needing no broker. Each datagram holds
+ * the sending node and the user id. UDP may drop messages, in which case the local cache TTL bounds staleness.
+ */
+@Component
+@ConditionalOnProperty(name = "users.cache.cluster.bus", havingValue = "multicast")
+public class MulticastInvalidationBus implements UserInvalidationBus {
+    private static final Logger log = LoggerFactory.getLogger(MulticastInvalidationBus.class);
+    private static final int MESSAGE_SIZE = 2 * Long.BYTES;
+
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+    private final InetAddress group;
+    private final int port;
+    private final MulticastSocket socket;
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    public MulticastInvalidationBus(@Value("${users.cache.cluster.multicast.group:239.1.2.3}") String group,
+                                    @Value("${users.cache.cluster.multicast.port:45678}") int port) throws IOException {
+        this.group = InetAddress.getByName(group);
+        this.port = port;
+        this.socket = new MulticastSocket(port);
+        socket.joinGroup(this.group);
+        Thread receiver = new Thread(this::receive, "user-invalidations");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        socket.close();
+    }
+
+    @Override
+    public void publish(long userId) {
+        byte[] message = ByteBuffer.allocate(MESSAGE_SIZE).putLong(nodeId).putLong(userId).array();
+        try {
+            socket.send(new DatagramPacket(message, message.length, group, port));
+        } catch (IOException e) {
+            log.warn("Could not publish invalidation of user {}", userId, e);
+        }
+    }
+
+    @Override
+    public void subscribe(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MESSAGE_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+                if (packet.getLength() != MESSAGE_SIZE) {
+                    continue;
+                }
+                ByteBuffer message = ByteBuffer.wrap(buffer);
+                if (message.getLong() != nodeId) {
+                    long userId = message.getLong();
+                    listeners.forEach(listener -> listener.accept(userId));
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Could not receive invalidation", e);
+                }
+            }
+        }
+    }
+}
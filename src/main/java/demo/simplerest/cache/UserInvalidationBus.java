@@ -0,0 +1,19 @@
+package demo.simplerest.cache;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Carries "user changed" messages between the nodes of a cluster so each can drop its local copy.
+ * Delivery is best effort; a lost message leaves a node stale until its local entry expires.
+ */
+public interface UserInvalidationBus {
+    /**
+     * Tells every other node that the user changed.
+     */
+    void publish(long userId);
+
+    /**
+     * Registers this node's listener. Messages this node published are not delivered back to it.
+     */
+    void subscribe(LongConsumer listener);
+}
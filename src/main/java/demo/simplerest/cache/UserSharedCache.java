@@ -0,0 +1,17 @@
+package demo.simplerest.cache;
+
+import demo.simplerest.entities.User;
+
+/**
+ * Second-level user cache shared by all nodes, consulted after a node's own cache misses.
+ */
+public interface UserSharedCache {
+    User get(long id);
+
+    /**
+     * Stores the user unless a newer version of it is already cached.
+     */
+    void put(User user);
+
+    void evict(long id);
+}
@@ -0,0 +1,119 @@
+package demo.simplerest.controllers;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.WebMvcRegistrationsAdapter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the handlers of {@link Blocking} controllers as async requests on a bounded executor sized
+ * to the connection pool, so a container thread is released while the database works and excess
+ * load queues up to {@code users.async.queue-capacity} before being rejected.
+ * <p>
+ * The bound is enforced with permits taken before async processing starts, so an overloaded request is
+ * rejected on its own thread and answered once. The executor itself has room for every permit and never
+ * rejects: Spring would then both dispatch the failure and rethrow it, handling the request twice.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.async.enabled")
+public class AsyncRequestConfiguration extends WebMvcConfigurerAdapter {
+    @Value("${users.async.db-threads:20}")
+    private int dbThreads;
+
+    @Value("${users.async.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${users.async.timeout-ms:30000}")
+    private long timeoutMillis;
+
+    @Bean
+    public ThreadPoolTaskExecutor dbExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(dbThreads);
+        executor.setMaxPoolSize(dbThreads);
+        // permits cover the running tasks too, and a finished task may not have left its thread yet
+        executor.setQueueCapacity(queueCapacity + dbThreads);
+        executor.setThreadNamePrefix("db-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(dbExecutor());
+        configurer.setDefaultTimeout(timeoutMillis);
+    }
+
+    /**
+     * One permit per request that may be running or queued on the executor.
+     */
+    @Bean
+    public Semaphore asyncRequestPermits() {
+        return new Semaphore(dbThreads + queueCapacity);
+    }
+
+    @Bean
+    public WebMvcRegistrationsAdapter offloadingRegistrations() {
+        return new WebMvcRegistrationsAdapter() {
+            @Override
+            public RequestMappingHandlerAdapter getRequestMappingHandlerAdapter() {
+                return new OffloadingHandlerAdapter(asyncRequestPermits());
+            }
+        };
+    }
+
+    static class OffloadingHandlerAdapter extends RequestMappingHandlerAdapter {
+        private final Semaphore permits;
+
+        OffloadingHandlerAdapter(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        protected ServletInvocableHandlerMethod createInvocableHandlerMethod(HandlerMethod handlerMethod) {
+            if (AnnotatedElementUtils.hasAnnotation(handlerMethod.getBeanType(), Blocking.class)) {
+                return new OffloadedHandlerMethod(handlerMethod, permits);
+            }
+            return super.createInvocableHandlerMethod(handlerMethod);
+        }
+    }
+
+    /**
+     * Resolves the arguments on the container thread, then hands the actual call to the async executor
+     * as a {@link Callable}; its result is rendered on redispatch like a synchronous return value.
+     * Without a free permit the call fails right here, before any async processing has started.
+     */
+    static class OffloadedHandlerMethod extends ServletInvocableHandlerMethod {
+        private final Semaphore permits;
+
+        OffloadedHandlerMethod(HandlerMethod handlerMethod, Semaphore permits) {
+            super(handlerMethod);
+            this.permits = permits;
+        }
+
+        @Override
+        protected Object doInvoke(Object... args) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Async request queue is full");
+            }
+            return (Callable<Object>) () -> {
+                try {
+                    return super.doInvoke(args);
+                } finally {
+                    permits.release();
+                }
+            };
+        }
+    }
+}
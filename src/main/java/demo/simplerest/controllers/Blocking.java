@@ -0,0 +1,17 @@
+package demo.simplerest.controllers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller whose handlers block on the database. With {@code users.async.enabled=true}
+ * they run on the bounded database executor instead of a servlet container thread.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Blocking {
+}
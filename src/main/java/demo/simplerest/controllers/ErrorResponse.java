@@ -0,0 +1,26 @@
+package demo.simplerest.controllers;
+
+import demo.simplerest.InvalidDataException.FieldError;
+
+import java.util.List;
+
+/**
+ * Body of a 400 response: the first error as {@code message}, for clients that only show one, and all of them.
+ */
+public class ErrorResponse {
+    private final String message;
+    private final List<FieldError> errors;
+
+    ErrorResponse(String message, List<FieldError> errors) {
+        this.message = message;
+        this.errors = errors;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public List<FieldError> getErrors() {
+        return errors;
+    }
+}
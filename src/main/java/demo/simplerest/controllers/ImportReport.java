@@ -0,0 +1,57 @@
+package demo.simplerest.controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import. Only the first {@value #MAX_REPORTED_ERRORS} errors are listed,
+ * so a bad dump can not make the report grow with the input.
+ */
+public class ImportReport {
+    static final int MAX_REPORTED_ERRORS = 1000;
+
+    private int imported;
+    private int failed;
+    private final List<LineError> errors = new ArrayList<>();
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<LineError> getErrors() {
+        return errors;
+    }
+
+    void addImported(int count) {
+        imported += count;
+    }
+
+    void addError(int line, String message) {
+        failed++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new LineError(line, message));
+        }
+    }
+
+    public static class LineError {
+        private final int line;
+        private final String message;
+
+        LineError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package demo.simplerest.controllers;
+
+import demo.simplerest.services.UserChange;
+import demo.simplerest.services.UserChangeFeed;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the {@link UserChangeFeed} as Server-Sent Events. Every event id is the change sequence, so a client
+ * resumes with {@code ?since=} or {@code Last-Event-ID}. Events are written by a small dispatcher pool rather
+ * than by the writing request; a subscriber that falls further behind than the buffer gets a {@code reset}
+ * event and is closed, and has to reload the users before following the feed again.
+ */
+@RestController
+@RequestMapping("/users/changes")
+@ConditionalOnProperty(name = "users.changes.enabled", matchIfMissing = true)
+public class UserChangeController {
+    private static final int MAX_EVENTS_PER_DRAIN = 100;
+
+    private final UserChangeFeed userChangeFeed;
+    private final long timeoutMillis;
+    private final ThreadPoolTaskExecutor dispatcher = new ThreadPoolTaskExecutor();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Runnable wakeUp = () -> subscriptions.forEach(Subscription::schedule);
+
+    public UserChangeController(UserChangeFeed userChangeFeed,
+                                @Value("${users.changes.dispatch-threads:4}") int dispatchThreads,
+                                @Value("${users.changes.timeout-ms:600000}") long timeoutMillis) {
+        this.userChangeFeed = userChangeFeed;
+        this.timeoutMillis = timeoutMillis;
+        dispatcher.setCorePoolSize(dispatchThreads);
+        dispatcher.setMaxPoolSize(dispatchThreads);
+        dispatcher.setThreadNamePrefix("user-changes-");
+        dispatcher.initialize();
+        userChangeFeed.addListener(wakeUp);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        userChangeFeed.removeListener(wakeUp);
+        subscriptions.forEach(subscription -> subscription.emitter.complete());
+        dispatcher.shutdown();
+    }
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(@RequestParam(required = false) Long since,
+                              @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        long cursor = lastEventId != null ? lastEventId : since != null ? since : userChangeFeed.lastSequence();
+        Subscription subscription = new Subscription(new SseEmitter(timeoutMillis), cursor);
+        subscription.emitter.onCompletion(() -> subscriptions.remove(subscription));
+        subscription.emitter.onTimeout(() -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        subscription.schedule();
+        return subscription.emitter;
+    }
+
+    private class Subscription {
+        final SseEmitter emitter;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long cursor;
+
+        Subscription(SseEmitter emitter, long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            try {
+                while (true) {
+                    List<UserChange> changes = userChangeFeed.readAfter(cursor, MAX_EVENTS_PER_DRAIN);
+                    if (changes == null) {
+                        emitter.send(SseEmitter.event().name("reset").data(userChangeFeed.lastSequence()));
+                        close();
+                        return;
+                    }
+                    for (UserChange change : changes) {
+                        emitter.send(SseEmitter.event()
+                                .id(Long.toString(change.getSequence()))
+                                .name(change.getType().name())
+                                .data(change, MediaType.APPLICATION_JSON));
+                        cursor = change.getSequence();
+                    }
+                    if (changes.isEmpty()) {
+                        scheduled.set(false);
+                        // a change published after the read but before the flag was cleared found us still scheduled
+                        if (cursor >= userChangeFeed.lastSequence() || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client went away or the emitter already completed
+                close();
+            }
+        }
+
+        void close() {
+            subscriptions.remove(this);
+            emitter.complete();
+        }
+    }
+}
@@ -1,35 +1,185 @@
 package demo.simplerest.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import demo.simplerest.InvalidDataException;
 import demo.simplerest.entities.User;
+import demo.simplerest.json.UserJson;
+import demo.simplerest.repositories.UserField;
 import demo.simplerest.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+@Blocking
 @RestController
 @RequestMapping("/users")
 public class UserController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final int IMPORT_CHUNK_SIZE = 500;
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     @Autowired
     private UserService userService;
 
-    @GetMapping()
-    public List<User> findAll() {
-        return userService.findAll();
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @GetMapping(params = {"!after", "!limit"})
+    public void findAll(@RequestParam(required = false) String fields,
+                        ServletWebRequest webRequest, HttpServletResponse response)
+            throws IOException, InvalidDataException {
+        List<UserField> selected = fieldsOf(fields);
+        // taken before the read, so a concurrent change can only make the tag older than the body, never newer
+        if (webRequest.checkNotModified(tableETag(fieldsTag(selected)))) {
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            if (selected != null) {
+                writeAllColumns(generator, selected);
+                return;
+            }
+            generator.writeStartArray();
+            userService.forEach(user -> {
+                try {
+                    UserJson.write(generator, user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    @GetMapping("/export")
+    public void export(HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_NDJSON_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            // the lines are the separators, not the space Jackson puts between root values by default
+            generator.setRootValueSeparator(null);
+            userService.forEach(user -> {
+                try {
+                    UserJson.write(generator, user);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads one user per line and imports them in chunks as they arrive, so memory stays flat and a slow
+     * database slows down the upload instead of buffering it. Invalid lines are reported, not fatal.
+     */
+    @PostMapping("/import")
+    public ImportReport importUsers(InputStream body) throws IOException {
+        ObjectReader userReader = objectMapper.readerFor(User.class);
+        BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        ImportReport report = new ImportReport();
+        List<User> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        List<Integer> lineNumbers = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            User user;
+            try {
+                user = userReader.readValue(line);
+            } catch (JsonProcessingException e) {
+                report.addError(lineNumber, "Malformed user: " + e.getOriginalMessage());
+                continue;
+            }
+            if (user == null) {
+                report.addError(lineNumber, "Malformed user: null");
+                continue;
+            }
+            chunk.add(user);
+            lineNumbers.add(lineNumber);
+            if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                importChunk(chunk, lineNumbers, report);
+            }
+        }
+        importChunk(chunk, lineNumbers, report);
+        return report;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<User>> findPage(@RequestParam(defaultValue = "0") long after,
+                                               @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                               @RequestParam(required = false) String fields,
+                                               ServletWebRequest webRequest, HttpServletResponse response)
+            throws IOException, InvalidDataException {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<UserField> selected = fieldsOf(fields);
+        if (webRequest.checkNotModified(tableETag("-" + after + "-" + limit + fieldsTag(selected)))) {
+            return null;
+        }
+        if (selected != null) {
+            writeColumns(response, selected, userService.findPage(after, limit, selected));
+            return null;
+        }
+        return new ResponseEntity<>(userService.findPage(after, limit), HttpStatus.OK);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<User> findById(@PathVariable long id) {
+    public ResponseEntity<User> findById(@PathVariable long id, ServletWebRequest webRequest) {
         User user = userService.findById(id);
-        return user == null ? new ResponseEntity<>(HttpStatus.NOT_FOUND) : new ResponseEntity<>(user, HttpStatus.OK);
+        if (user == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (user.getVersion() != null && webRequest.checkNotModified(eTagOf(user))) {
+            return null;
+        }
+        return withETag(user, HttpStatus.OK);
     }
 
     @GetMapping("/name/{name}")
-    public List<User> findByName(@PathVariable String name) {
-        return userService.findByName(name);
+    public ResponseEntity<List<User>> findByName(@PathVariable String name,
+                                                 @RequestParam(defaultValue = "0") int offset,
+                                                 @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                                 @RequestParam(required = false) String fields,
+                                                 HttpServletResponse response)
+            throws IOException, InvalidDataException {
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<UserField> selected = fieldsOf(fields);
+        if (selected != null) {
+            writeColumns(response, selected, userService.findByName(name, offset, limit, selected));
+            return null;
+        }
+        return new ResponseEntity<>(userService.findByName(name, offset, limit), HttpStatus.OK);
     }
 
     @PostMapping
@@ -40,32 +190,195 @@ public class UserController {
 
     @PutMapping
     @ResponseStatus(value = HttpStatus.OK)
-    public ResponseEntity<User> update(@RequestBody User user) throws InvalidDataException {
+    public ResponseEntity<User> update(@RequestBody User user,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+            throws InvalidDataException {
         if (user.getId() == null) {
             return new ResponseEntity<>(user, HttpStatus.BAD_REQUEST);
         }
-        User userToUpdate = userService.findById(user.getId());
-        if (userToUpdate != null) {
-            return new ResponseEntity<>(userService.update(user), HttpStatus.OK);
+        if (ifMatch != null) {
+            user.setVersion(versionOf(ifMatch));
+        }
+        User updatedUser = userService.update(user);
+        if (updatedUser == null) {
+            return new ResponseEntity<>(user, HttpStatus.NOT_FOUND);
         }
-        return new ResponseEntity<>(user, HttpStatus.NOT_FOUND);
+        return withETag(updatedUser, HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<User>> createAll(@RequestBody List<User> users) throws InvalidDataException {
+        if (users.size() > MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        return new ResponseEntity<>(userService.createAll(users), HttpStatus.OK);
+    }
+
+    @PutMapping("/batch")
+    public ResponseEntity<List<User>> updateAll(@RequestBody List<User> users) throws InvalidDataException {
+        if (users.size() > MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        return new ResponseEntity<>(userService.updateAll(users), HttpStatus.OK);
+    }
+
+    @DeleteMapping("/batch")
+    public ResponseEntity<Map<String, Integer>> deleteAll(@RequestBody List<Long> ids) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        return new ResponseEntity<>(Collections.singletonMap("deleted", userService.removeAll(ids)), HttpStatus.OK);
+    }
 
     @DeleteMapping(value = "/{id}")
     @ResponseStatus(value = HttpStatus.OK)
-    public ResponseEntity<User> delete(@PathVariable("id") long id) {
-        User userToDelete = userService.findById(id);
-        if (userToDelete != null) {
-            userService.remove(id);
-        }
-        return new ResponseEntity<>(userToDelete, userToDelete == null ? HttpStatus.NOT_FOUND : HttpStatus.OK);
+    public ResponseEntity<Void> delete(@PathVariable("id") long id,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        boolean removed = userService.remove(id, versionOf(ifMatch));
+        return new ResponseEntity<>(removed ? HttpStatus.OK : HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(InvalidDataException.class)
     @ResponseStatus(value = HttpStatus.BAD_REQUEST)
     @ResponseBody
-    public String handleResourceNotFoundException(InvalidDataException ex) {
+    public ErrorResponse handleResourceNotFoundException(InvalidDataException ex) {
+        return new ErrorResponse(ex.getMessage(), ex.getErrors());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+    @ResponseBody
+    public String handleOptimisticLockingFailureException(OptimisticLockingFailureException ex) {
         return ex.getMessage();
     }
+
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    @ResponseStatus(value = HttpStatus.CONFLICT)
+    @ResponseBody
+    public String handleDataIntegrityViolationException(DataIntegrityViolationException ex) {
+        // raced past validation into the unique phone constraint
+        if (violates(ex, User.PHONE_CONSTRAINT)) {
+            return "User with such phone already exists";
+        }
+        return "Request conflicts with the stored users";
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> handleRejectedExecutionException(RejectedExecutionException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Too many concurrent requests");
+    }
+
+    /**
+     * Whether the constraint is named anywhere in the cause chain; drivers report it only in their messages.
+     */
+    private static boolean violates(Throwable ex, String constraint) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().toLowerCase(Locale.ROOT).contains(constraint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void importChunk(List<User> chunk, List<Integer> lineNumbers, ImportReport report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> errors = userService.importAll(chunk);
+        errors.forEach((position, message) -> report.addError(lineNumbers.get(position), message));
+        report.addImported(chunk.size() - errors.size());
+        chunk.clear();
+        lineNumbers.clear();
+    }
+
+    /**
+     * The fields selected by a {@code fields} parameter, or {@code null} for whole users.
+     */
+    private static List<UserField> fieldsOf(String fields) throws InvalidDataException {
+        if (fields == null) {
+            return null;
+        }
+        try {
+            return UserField.parse(fields);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidDataException("fields", e.getMessage());
+        }
+    }
+
+    private static String fieldsTag(List<UserField> fields) {
+        if (fields == null) {
+            return "";
+        }
+        StringBuilder tag = new StringBuilder("-f");
+        fields.forEach(field -> tag.append(field.ordinal()));
+        return tag.toString();
+    }
+
+    private void writeColumns(HttpServletResponse response, List<UserField> fields, List<Object[]> rows)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            UserJson.writeRows(generator, fields, rows);
+        }
+    }
+
+    /**
+     * Walks the whole table in id order, a page at a time, so memory stays flat like the streamed full users.
+     */
+    private void writeAllColumns(JsonGenerator generator, List<UserField> fields) throws IOException {
+        // the id is the cursor, so it is read even when not selected and left out of the output
+        List<UserField> read = fields;
+        if (!fields.contains(UserField.ID)) {
+            read = new ArrayList<>(fields);
+            read.add(UserField.ID);
+        }
+        int idColumn = read.indexOf(UserField.ID);
+        generator.writeStartArray();
+        long after = 0;
+        List<Object[]> rows;
+        do {
+            rows = userService.findPage(after, MAX_PAGE_SIZE, read);
+            for (Object[] row : rows) {
+                UserJson.writeRow(generator, fields, row);
+                after = (Long) row[idColumn];
+            }
+        } while (rows.size() == MAX_PAGE_SIZE);
+        generator.writeEndArray();
+    }
+
+    private static ResponseEntity<User> withETag(User user, HttpStatus status) {
+        if (user.getVersion() == null) {
+            return new ResponseEntity<>(user, status);
+        }
+        return ResponseEntity.status(status).eTag(eTagOf(user)).body(user);
+    }
+
+    private static String eTagOf(User user) {
+        return "\"" + user.getVersion() + "\"";
+    }
+
+    private String tableETag(String suffix) {
+        return "\"t" + userService.tableVersion() + suffix + "\"";
+    }
+
+    /**
+     * Reads the expected version from an If-Match header, {@code null} meaning any version.
+     */
+    private static Long versionOf(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        try {
+            return Long.parseLong(tag.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            // a tag we never issued can not match any version
+            return -1L;
+        }
+    }
 }
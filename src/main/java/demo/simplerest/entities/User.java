@@ -1,25 +1,46 @@
 package demo.simplerest.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import java.io.Serializable;
+import java.util.Locale;
 
 @Entity
+@Table(indexes = @Index(name = "idx_user_name_lower", columnList = "name_lower, id"),
+        uniqueConstraints = @UniqueConstraint(name = User.PHONE_CONSTRAINT, columnNames = "phone"))
 public class User implements Serializable {
     private final static long serialVersionUID = 1L;
+    public static final String PHONE_CONSTRAINT = "uk_user_phone";
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
     private String name;
 
-    @Column(unique = true)
+    @JsonIgnore
+    @Column(name = "name_lower", nullable = false)
+    private String nameLower;
+
     private String phone;
 
+    @Version
+    private Long version;
+
     public Long getId() {
         return id;
     }
@@ -36,6 +57,10 @@ public class User implements Serializable {
         this.name = name;
     }
 
+    public String getNameLower() {
+        return nameLower;
+    }
+
     public String getPhone() {
         return phone;
     }
@@ -43,4 +68,31 @@ public class User implements Serializable {
     public void setPhone(String phone) {
         this.phone = phone;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void normalizeName() {
+        nameLower = lowerCase(name);
+    }
+
+    public static String lowerCase(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+
+    public static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setName(user.getName());
+        copy.setPhone(user.getPhone());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
 }
@@ -0,0 +1,87 @@
+package demo.simplerest.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes users field by field with pre-encoded property names, the same JSON databinding produces
+ * without looking up serializers or building property writers on the way.
+ */
+public final class UserJson {
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString PHONE = new SerializedString("phone");
+    private static final SerializedString VERSION = new SerializedString("version");
+    private static final SerializedString[] FIELD_NAMES = new SerializedString[UserField.values().length];
+
+    static {
+        for (UserField field : UserField.values()) {
+            FIELD_NAMES[field.ordinal()] = new SerializedString(field.getProperty());
+        }
+    }
+
+    private UserJson() {
+    }
+
+    public static void write(JsonGenerator generator, User user) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ID);
+        if (user.getId() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(user.getId());
+        }
+        generator.writeFieldName(NAME);
+        generator.writeString(user.getName());
+        generator.writeFieldName(PHONE);
+        generator.writeString(user.getPhone());
+        generator.writeFieldName(VERSION);
+        if (user.getVersion() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(user.getVersion());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes a projected row as an object holding only the given fields, ignoring any further values of the row.
+     */
+    public static void writeRow(JsonGenerator generator, List<UserField> fields, Object[] row) throws IOException {
+        generator.writeStartObject();
+        for (int i = 0; i < fields.size(); i++) {
+            generator.writeFieldName(FIELD_NAMES[fields.get(i).ordinal()]);
+            Object value = row[i];
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof Long) {
+                generator.writeNumber((Long) value);
+            } else {
+                generator.writeString(value.toString());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    public static void writeRows(JsonGenerator generator, List<UserField> fields, List<Object[]> rows) throws IOException {
+        generator.writeStartArray();
+        for (Object[] row : rows) {
+            writeRow(generator, fields, row);
+        }
+        generator.writeEndArray();
+    }
+
+    public static void writeAll(JsonGenerator generator, Collection<User> users) throws IOException {
+        generator.writeStartArray();
+        for (User user : users) {
+            write(generator, user);
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,94 @@
+package demo.simplerest.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import demo.simplerest.entities.User;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Writes {@link User} and collections of users response bodies straight to the response stream through
+ * {@link UserJson}. Jackson recycles the generator buffers per thread, so a response allocates no
+ * intermediate tree, string or char array. Reading is left to the regular Jackson converter.
+ */
+@Component
+public class UserJsonHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+    private final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public UserJsonHttpMessageConverter() {
+        super(new MediaType("application", "json", StandardCharsets.UTF_8),
+                new MediaType("application", "*+json", StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return User.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return isUserType(type != null ? type : clazz) && canWrite(mediaType);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object body, Type type, HttpOutputMessage outputMessage) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            if (body instanceof User) {
+                UserJson.write(generator, (User) body);
+            } else {
+                UserJson.writeAll(generator, (Collection<User>) body);
+            }
+        }
+    }
+
+    /**
+     * Not reached through Spring MVC, {@link #canRead} always declines; the converter contract still requires it.
+     */
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("User JSON converter only writes responses, " + clazz
+                + " is read by the Jackson converter");
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("User JSON converter only writes responses, " + type
+                + " is read by the Jackson converter");
+    }
+
+    private static boolean isUserType(Type type) {
+        if (type instanceof Class) {
+            return User.class.isAssignableFrom((Class<?>) type);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            return parameterized.getRawType() instanceof Class
+                    && Collection.class.isAssignableFrom((Class<?>) parameterized.getRawType())
+                    && parameterized.getActualTypeArguments().length == 1
+                    && parameterized.getActualTypeArguments()[0] == User.class;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,26 @@
+package demo.simplerest.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import demo.simplerest.entities.User;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * Used wherever a {@link User} still goes through the object mapper, e.g. inside change events and reports.
+ */
+@JsonComponent
+public class UserSerializer extends StdSerializer<User> {
+    private static final long serialVersionUID = 1L;
+
+    public UserSerializer() {
+        super(User.class);
+    }
+
+    @Override
+    public void serialize(User user, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        UserJson.write(generator, user);
+    }
+}
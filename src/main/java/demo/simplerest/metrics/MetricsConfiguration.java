@@ -0,0 +1,34 @@
+package demo.simplerest.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+    private final MeterRegistry meterRegistry;
+    private final SqlStatementMetricsInterceptor sqlStatementMetricsInterceptor;
+
+    public MetricsConfiguration(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.sqlStatementMetricsInterceptor = new SqlStatementMetricsInterceptor(meterRegistry);
+    }
+
+    @Bean
+    public RepositoryMetricsAspect repositoryMetricsAspect() {
+        return new RepositoryMetricsAspect(meterRegistry);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(sqlStatementMetricsInterceptor).addPathPatterns("/users/**");
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(sqlStatementMetricsInterceptor.callableInterceptor());
+    }
+}
@@ -0,0 +1,33 @@
+package demo.simplerest.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the SQL statements Hibernate prepares into the counter bound to the current thread, if any.
+ * Registered through {@code hibernate.session_factory.statement_inspector}, so Hibernate creates it rather
+ * than Spring. A request binds one counter to every thread it runs on, including the async executor's.
+ */
+public class SqlStatementCounter implements StatementInspector {
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<AtomicInteger> CURRENT = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        AtomicInteger count = CURRENT.get();
+        if (count != null) {
+            count.incrementAndGet();
+        }
+        return sql;
+    }
+
+    public static void bind(AtomicInteger count) {
+        CURRENT.set(count);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+}
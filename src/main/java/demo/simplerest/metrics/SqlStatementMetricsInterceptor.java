@@ -0,0 +1,79 @@
+package demo.simplerest.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how many SQL statements each request issued, per endpoint. The count lives in a request attribute,
+ * so statements run by an offloaded handler on the async executor count towards the request that started it.
+ */
+public class SqlStatementMetricsInterceptor extends HandlerInterceptorAdapter {
+    private static final String COUNT_ATTRIBUTE = SqlStatementMetricsInterceptor.class.getName() + ".count";
+
+    private final MeterRegistry meterRegistry;
+
+    public SqlStatementMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // an async redispatch keeps counting into the counter of the original dispatch
+        AtomicInteger count = (AtomicInteger) request.getAttribute(COUNT_ATTRIBUTE);
+        if (count == null) {
+            count = new AtomicInteger();
+            request.setAttribute(COUNT_ATTRIBUTE, count);
+        }
+        SqlStatementCounter.bind(count);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SqlStatementCounter.unbind();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        SqlStatementCounter.unbind();
+        AtomicInteger count = (AtomicInteger) request.getAttribute(COUNT_ATTRIBUTE);
+        Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        DistributionSummary.builder("http.server.requests.sql.statements")
+                .description("SQL statements issued per request")
+                .tags("method", request.getMethod(), "uri", uri == null ? "UNKNOWN" : uri.toString())
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry)
+                .record(count == null ? 0 : count.get());
+    }
+
+    /**
+     * Binds the request's counter to the executor thread for the duration of an offloaded handler.
+     */
+    public CallableProcessingInterceptor callableInterceptor() {
+        return new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                AtomicInteger count = (AtomicInteger) request.getAttribute(COUNT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (count != null) {
+                    SqlStatementCounter.bind(count);
+                }
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+                SqlStatementCounter.unbind();
+            }
+        };
+    }
+}
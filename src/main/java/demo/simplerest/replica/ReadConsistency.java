@@ -0,0 +1,28 @@
+package demo.simplerest.replica;
+
+/**
+ * The change sequence the replica must have applied before it may serve reads on the current thread,
+ * bound for the duration of a request so the client reads its own writes.
+ */
+public final class ReadConsistency {
+    private static final ThreadLocal<Long> REQUIRED_SEQUENCE = new ThreadLocal<>();
+
+    private ReadConsistency() {
+    }
+
+    static void require(long sequence) {
+        REQUIRED_SEQUENCE.set(sequence);
+    }
+
+    /**
+     * 0 when any replica state will do, as for a client that has not written recently.
+     */
+    public static long requiredSequence() {
+        Long sequence = REQUIRED_SEQUENCE.get();
+        return sequence == null ? 0 : sequence;
+    }
+
+    static void clear() {
+        REQUIRED_SEQUENCE.remove();
+    }
+}
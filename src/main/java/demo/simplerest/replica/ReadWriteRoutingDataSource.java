@@ -0,0 +1,40 @@
+package demo.simplerest.replica;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends connections of read-only transactions to the replica while the {@link UserReplicator} says it is fresh
+ * enough for the current request, everything else to the primary. Has to sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction manager opens its
+ * connection before the transaction is marked read-only.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private final UserReplicator userReplicator;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, UserReplicator userReplicator) {
+        this.userReplicator = userReplicator;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        targets.put(REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && userReplicator.canServe(ReadConsistency.requiredSequence())) {
+            return REPLICA;
+        }
+        return PRIMARY;
+    }
+}
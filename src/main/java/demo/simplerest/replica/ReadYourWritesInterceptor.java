@@ -0,0 +1,105 @@
+package demo.simplerest.replica;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import demo.simplerest.admission.WriteAdmissionInterceptor;
+import demo.simplerest.services.UserChangeFeed;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers, per client, the last change sequence its writes produced and makes its reads require it, so the
+ * replica only answers a client once it has applied that client's writes. While a write of the client is still
+ * running its reads go to the primary, which also covers a read sent before this interceptor saw the write finish.
+ */
+public class ReadYourWritesInterceptor extends HandlerInterceptorAdapter {
+    private static final String WRITE_ATTRIBUTE = ReadYourWritesInterceptor.class.getName() + ".WRITE";
+
+    private final UserChangeFeed userChangeFeed;
+    private final Cache<String, ClientWrites> clients;
+
+    public ReadYourWritesInterceptor(UserChangeFeed userChangeFeed, long maxStalenessMillis) {
+        this.userChangeFeed = userChangeFeed;
+        // once forgotten, a client's writes are older than the staleness bound and the replica has them anyway
+        this.clients = Caffeine.newBuilder()
+                .expireAfterWrite(Math.max(TimeUnit.MINUTES.toMillis(1), 2 * maxStalenessMillis), TimeUnit.MILLISECONDS)
+                .maximumSize(100000)
+                .build();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        String client = WriteAdmissionInterceptor.clientOf(request);
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            request.setAttribute(WRITE_ATTRIBUTE, Boolean.TRUE);
+            clients.asMap().compute(client, (key, writes) -> writes == null
+                    ? new ClientWrites(1, 0) : new ClientWrites(writes.running + 1, writes.sequence));
+        }
+        ReadConsistency.require(requiredSequence(client));
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReadConsistency.clear();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ReadConsistency.clear();
+        if (request.getAttribute(WRITE_ATTRIBUTE) != null) {
+            request.removeAttribute(WRITE_ATTRIBUTE);
+            // the write has committed and published by now, so the feed is at or past its changes
+            long sequence = userChangeFeed.lastSequence();
+            clients.asMap().computeIfPresent(WriteAdmissionInterceptor.clientOf(request), (key, writes) ->
+                    new ClientWrites(writes.running - 1, Math.max(writes.sequence, sequence)));
+        }
+    }
+
+    /**
+     * Carries the requirement over to the thread an offloaded handler runs on.
+     */
+    public CallableProcessingInterceptor callableInterceptor() {
+        return new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                HttpServletRequest servletRequest = request.getNativeRequest(HttpServletRequest.class);
+                ReadConsistency.require(requiredSequence(WriteAdmissionInterceptor.clientOf(servletRequest)));
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+                ReadConsistency.clear();
+            }
+        };
+    }
+
+    private long requiredSequence(String client) {
+        ClientWrites writes = clients.getIfPresent(client);
+        if (writes == null) {
+            return 0;
+        }
+        return writes.running > 0 ? Long.MAX_VALUE : writes.sequence;
+    }
+
+    private static class ClientWrites {
+        final int running;
+        final long sequence;
+
+        ClientWrites(int running, long sequence) {
+            this.running = running;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package demo.simplerest.replica;
+
+import com.zaxxer.hikari.HikariConfig;
+import demo.simplerest.services.UserChangeFeed;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read/write splitting for the JPA store. The primary pool is configured by {@code spring.datasource.*} as before,
+ * the replica pool by {@code users.replica.datasource.*}. Read-only transactions go to the replica when it is fresh
+ * enough, see {@link UserReplicator} and {@link ReadYourWritesInterceptor}. Needs the change feed.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.replica.enabled")
+public class ReplicaConfiguration extends WebMvcConfigurerAdapter {
+    private final UserChangeFeed userChangeFeed;
+    private final MeterRegistry meterRegistry;
+    private final long maxStalenessMillis;
+    private final ReadYourWritesInterceptor readYourWritesInterceptor;
+
+    public ReplicaConfiguration(UserChangeFeed userChangeFeed, MeterRegistry meterRegistry,
+                                @Value("${users.replica.max-staleness-ms:1000}") long maxStalenessMillis) {
+        this.userChangeFeed = userChangeFeed;
+        this.meterRegistry = meterRegistry;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.readYourWritesInterceptor = new ReadYourWritesInterceptor(userChangeFeed, maxStalenessMillis);
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariConfig primaryPoolConfig(DataSourceProperties properties) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName(properties.determineDriverClassName());
+        config.setJdbcUrl(properties.determineUrl());
+        config.setUsername(properties.determineUsername());
+        config.setPassword(properties.determinePassword());
+        return config;
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "users.replica.datasource")
+    public HikariConfig replicaPoolConfig() {
+        return new HikariConfig();
+    }
+
+    @Bean
+    public ReplicaDataSources replicaDataSources(@Qualifier("primaryPoolConfig") HikariConfig primaryPoolConfig,
+                                                 @Qualifier("replicaPoolConfig") HikariConfig replicaPoolConfig) {
+        return new ReplicaDataSources(primaryPoolConfig, replicaPoolConfig);
+    }
+
+    @Bean
+    public UserReplicator userReplicator(ReplicaDataSources replicaDataSources) {
+        UserReplicator userReplicator = new UserReplicator(userChangeFeed, replicaDataSources.primary(),
+                replicaDataSources.replica(), maxStalenessMillis, TimeUnit.MILLISECONDS);
+        meterRegistry.gauge("users.replica.lag", userReplicator, UserReplicator::lag);
+        return userReplicator;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaDataSources replicaDataSources, UserReplicator userReplicator) {
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(replicaDataSources.primary(),
+                replicaDataSources.replica(), userReplicator));
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(readYourWritesInterceptor).addPathPatterns("/users/**");
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(readYourWritesInterceptor.callableInterceptor());
+    }
+}
@@ -0,0 +1,35 @@
+package demo.simplerest.replica;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.io.Closeable;
+
+/**
+ * The primary and the replica pool behind the routing {@code dataSource}. They are not beans of their own: Boot
+ * initializes the schema whenever a {@code DataSource} bean is created, and would ask for the routing one while
+ * it still waits for its pools.
+ */
+public class ReplicaDataSources implements Closeable {
+    private final HikariDataSource primary;
+    private final HikariDataSource replica;
+
+    public ReplicaDataSources(HikariConfig primary, HikariConfig replica) {
+        this.primary = new HikariDataSource(primary);
+        this.replica = new HikariDataSource(replica);
+    }
+
+    public HikariDataSource primary() {
+        return primary;
+    }
+
+    public HikariDataSource replica() {
+        return replica;
+    }
+
+    @Override
+    public void close() {
+        replica.close();
+        primary.close();
+    }
+}
@@ -0,0 +1,186 @@
+package demo.simplerest.replica;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserChange;
+import demo.simplerest.services.UserChangeFeed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the replica database in step with the primary by applying the {@link UserChangeFeed} on a single thread.
+ * It starts from a full copy and copies again whenever it falls behind the feed's buffer. Replayed changes are
+ * idempotent and never move a row back to an older version, so a copy taken while writes go on converges.
+ * <p>
+ * Staleness is bounded in time: the replica serves reads while it has applied the whole feed, or was last seen
+ * doing so within {@code maxStaleness}, so it can lack only changes committed in that window.
+ */
+public class UserReplicator {
+    private static final Logger log = LoggerFactory.getLogger(UserReplicator.class);
+    private static final int MAX_CHANGES_PER_BATCH = 500;
+    private static final String COLUMNS = "id, name, name_lower, phone, version";
+
+    private final UserChangeFeed userChangeFeed;
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final TransactionTemplate replicaTransaction;
+    private final long maxStalenessNanos;
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable wakeUp = this::schedule;
+    private volatile boolean ready;
+    private volatile long appliedSequence;
+    private volatile long caughtUpAt;
+
+    public UserReplicator(UserChangeFeed userChangeFeed, DataSource primary, DataSource replica,
+                          long maxStaleness, TimeUnit unit) {
+        this.userChangeFeed = userChangeFeed;
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.replicaTransaction = new TransactionTemplate(new DataSourceTransactionManager(replica));
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("user-replicator-");
+        executor.initialize();
+    }
+
+    /**
+     * Waits for the context, the primary schema only exists once Hibernate has created it.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            replica.execute("create table if not exists user (id bigint primary key, name varchar(255) not null, " +
+                    "name_lower varchar(255) not null, phone varchar(255), version bigint)");
+            replica.execute("create index if not exists idx_user_name_lower on user (name_lower, id)");
+            replica.execute("create index if not exists idx_user_phone on user (phone)");
+            userChangeFeed.addListener(wakeUp);
+            schedule();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        userChangeFeed.removeListener(wakeUp);
+        executor.shutdown();
+    }
+
+    /**
+     * Whether a read that must see the changes up to {@code requiredSequence} may go to the replica.
+     */
+    public boolean canServe(long requiredSequence) {
+        long applied = appliedSequence;
+        // drains only run after writes, so without writes caughtUpAt ages while the replica stays current
+        return ready && applied >= requiredSequence
+                && (applied >= userChangeFeed.lastSequence() || System.nanoTime() - caughtUpAt <= maxStalenessNanos);
+    }
+
+    public long appliedSequence() {
+        return appliedSequence;
+    }
+
+    public long lag() {
+        return ready ? userChangeFeed.lastSequence() - appliedSequence : userChangeFeed.lastSequence();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                long readAt = System.nanoTime();
+                List<UserChange> changes = ready ? userChangeFeed.readAfter(appliedSequence, MAX_CHANGES_PER_BATCH) : null;
+                if (changes == null) {
+                    copyAll();
+                    continue;
+                }
+                if (changes.isEmpty()) {
+                    caughtUpAt = readAt;
+                    scheduled.set(false);
+                    // a change published after the read but before the flag was cleared found us still scheduled
+                    if (appliedSequence >= userChangeFeed.lastSequence() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                replicaTransaction.execute(status -> {
+                    changes.forEach(this::apply);
+                    return null;
+                });
+                appliedSequence = changes.get(changes.size() - 1).getSequence();
+            }
+        } catch (RuntimeException e) {
+            // stays stale, and so unused, until the next change retries
+            log.warn("Replication stopped at sequence {}", appliedSequence, e);
+            scheduled.set(false);
+        }
+    }
+
+    private void copyAll() {
+        long sequence = userChangeFeed.lastSequence();
+        replicaTransaction.execute(status -> {
+            replica.update("delete from user");
+            List<Object[]> rows = new ArrayList<>(MAX_CHANGES_PER_BATCH);
+            primary.query("select " + COLUMNS + " from user", rs -> {
+                rows.add(new Object[]{rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5)});
+                if (rows.size() == MAX_CHANGES_PER_BATCH) {
+                    replica.batchUpdate("insert into user (" + COLUMNS + ") values (?, ?, ?, ?, ?)", rows);
+                    rows.clear();
+                }
+            });
+            replica.batchUpdate("insert into user (" + COLUMNS + ") values (?, ?, ?, ?, ?)", rows);
+            return null;
+        });
+        appliedSequence = sequence;
+        ready = true;
+        log.info("Replica copied from primary at sequence {}", sequence);
+    }
+
+    private void apply(UserChange change) {
+        User user = change.getUser();
+        if (user != null && user.getVersion() == null) {
+            // an update without If-Match does not know the version it produced
+            List<User> current = primary.query("select id, name, phone, version from user where id = ?", (rs, rowNum) -> {
+                User row = new User();
+                row.setId(rs.getLong(1));
+                row.setName(rs.getString(2));
+                row.setPhone(rs.getString(3));
+                row.setVersion(rs.getLong(4));
+                return row;
+            }, change.getUserId());
+            user = current.isEmpty() ? null : current.get(0);
+        }
+        if (user == null) {
+            replica.update("delete from user where id = ?", change.getUserId());
+            return;
+        }
+        int updated = replica.update("update user set name = ?, name_lower = ?, phone = ?, version = ? " +
+                        "where id = ? and version < ?", user.getName(), User.lowerCase(user.getName()), user.getPhone(),
+                user.getVersion(), user.getId(), user.getVersion());
+        if (updated == 0) {
+            Integer existing = replica.queryForObject("select count(*) from user where id = ?", Integer.class, user.getId());
+            if (existing == 0) {
+                replica.update("insert into user (" + COLUMNS + ") values (?, ?, ?, ?, ?)", user.getId(), user.getName(),
+                        User.lowerCase(user.getName()), user.getPhone(), user.getVersion());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package demo.simplerest.repositories;
+
+import demo.simplerest.entities.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A column of the users table a client can select. Projections are rows of the selected values in the
+ * order of the requested fields.
+ */
+public enum UserField {
+    ID("id", User::getId),
+    NAME("name", User::getName),
+    PHONE("phone", User::getPhone),
+    VERSION("version", User::getVersion);
+
+    private final String property;
+    private final Function<User, Object> getter;
+
+    UserField(String property, Function<User, Object> getter) {
+        this.property = property;
+        this.getter = getter;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * Parses a comma separated list such as {@code id,name}; unknown or repeated fields are rejected.
+     */
+    public static List<UserField> parse(String fields) {
+        List<UserField> result = new ArrayList<>();
+        for (String name : fields.split(",")) {
+            UserField field = ofProperty(name.trim());
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field " + name.trim());
+            }
+            if (result.contains(field)) {
+                throw new IllegalArgumentException("Repeated field " + name.trim());
+            }
+            result.add(field);
+        }
+        return result;
+    }
+
+    public static Object[] project(User user, List<UserField> fields) {
+        Object[] row = new Object[fields.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = fields.get(i).getter.apply(user);
+        }
+        return row;
+    }
+
+    public static List<Object[]> project(List<User> users, List<UserField> fields) {
+        List<Object[]> rows = new ArrayList<>(users.size());
+        users.forEach(user -> rows.add(project(user, fields)));
+        return rows;
+    }
+
+    private static UserField ofProperty(String property) {
+        for (UserField field : values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
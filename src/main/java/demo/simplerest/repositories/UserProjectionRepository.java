@@ -0,0 +1,16 @@
+package demo.simplerest.repositories;
+
+import java.util.List;
+
+/**
+ * Scalar queries of only the selected columns, mixed into {@link UserRepository}. The rows are plain values,
+ * so no entity is hydrated, registered with the persistence context or dirty checked.
+ */
+public interface UserProjectionRepository {
+    List<Object[]> findColumnsByIdGreaterThan(List<UserField> fields, long afterId, int limit);
+
+    /**
+     * Expects an already lower-cased and escaped pattern, like {@link UserRepository#findByNameLowerPrefix}.
+     */
+    List<Object[]> findColumnsByNameLowerPrefix(List<UserField> fields, String prefix, int offset, int limit);
+}
@@ -2,14 +2,81 @@ package demo.simplerest.repositories;
 
 
 import demo.simplerest.entities.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface UserRepository extends JpaRepository<User, Long> {
+/**
+ * Reads that only serve responses load their entities read-only, so Hibernate keeps no snapshot for dirty checking.
+ */
+public interface UserRepository extends JpaRepository<User, Long>, UserProjectionRepository {
+    /**
+     * Read-only on its own, callers look up without a transaction so that batched lookups hold no connection.
+     */
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
     User findById(long id);
 
-    List<User> findByNameStartingWithIgnoreCase(String name);
+    /**
+     * Prefix search served by the {@code name_lower} index, expects an already lower-cased and escaped pattern.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    @Query("select u from User u where u.nameLower like :prefix escape '\\' order by u.nameLower, u.id")
+    List<User> findByNameLowerPrefix(@Param("prefix") String prefix, Pageable pageable);
 
     User findByPhone(String phone);
+
+    List<User> findByPhoneIn(Collection<String> phones);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.name = :name, u.nameLower = :nameLower, u.phone = :phone, " +
+            "u.version = u.version + 1 where u.id = :id")
+    int updateById(@Param("id") long id, @Param("name") String name, @Param("nameLower") String nameLower,
+                   @Param("phone") String phone);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.name = :name, u.nameLower = :nameLower, u.phone = :phone, " +
+            "u.version = u.version + 1 where u.id = :id and u.version = :version")
+    int updateByIdAndVersion(@Param("id") long id, @Param("version") long version, @Param("name") String name,
+                             @Param("nameLower") String nameLower, @Param("phone") String phone);
+
+    @Transactional
+    @Modifying
+    @Query("delete from User u where u.id = :id")
+    int deleteById(@Param("id") long id);
+
+    @Transactional
+    @Modifying
+    @Query("delete from User u where u.id = :id and u.version = :version")
+    int deleteByIdAndVersion(@Param("id") long id, @Param("version") long version);
+
+    @Query("select u.id from User u where u.id in :ids")
+    List<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Transactional
+    @Modifying
+    @Query("delete from User u where u.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select new demo.simplerest.repositories.UserTableVersion(count(u), max(u.id), sum(u.version)) from User u")
+    UserTableVersion findTableVersion();
+
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    List<User> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    @QueryHints({@QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true")})
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAllOrderById();
 }
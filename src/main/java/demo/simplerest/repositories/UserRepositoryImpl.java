@@ -0,0 +1,50 @@
+package demo.simplerest.repositories;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * {@link UserProjectionRepository} in JPQL. The select list is built from the fields, which are a closed enum,
+ * so only a handful of distinct query strings exist and each plan is cached once.
+ */
+public class UserRepositoryImpl implements UserProjectionRepository {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Object[]> findColumnsByIdGreaterThan(List<UserField> fields, long afterId, int limit) {
+        return rows(entityManager.createQuery("select " + selectList(fields) +
+                " from User u where u.id > :afterId order by u.id")
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit), fields);
+    }
+
+    @Override
+    public List<Object[]> findColumnsByNameLowerPrefix(List<UserField> fields, String prefix, int offset, int limit) {
+        return rows(entityManager.createQuery("select " + selectList(fields) +
+                " from User u where u.nameLower like :prefix escape '\\' order by u.nameLower, u.id")
+                .setParameter("prefix", prefix)
+                .setFirstResult(offset)
+                .setMaxResults(limit), fields);
+    }
+
+    private static String selectList(List<UserField> fields) {
+        return fields.stream().map(field -> "u." + field.getProperty()).collect(Collectors.joining(", "));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object[]> rows(Query query, List<UserField> fields) {
+        if (fields.size() > 1) {
+            return query.getResultList();
+        }
+        // a single selected column comes back as bare values
+        List<Object> values = query.getResultList();
+        List<Object[]> rows = new ArrayList<>(values.size());
+        values.forEach(value -> rows.add(new Object[]{value}));
+        return rows;
+    }
+}
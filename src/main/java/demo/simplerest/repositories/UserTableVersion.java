@@ -0,0 +1,34 @@
+package demo.simplerest.repositories;
+
+/**
+ * Cheap fingerprint of the whole user table: every create raises the count and the max id,
+ * every update bumps a version and every delete lowers the count, so any change alters it.
+ */
+public class UserTableVersion {
+    private final long count;
+    private final long maxId;
+    private final long versionSum;
+
+    public UserTableVersion(Long count, Long maxId, Long versionSum) {
+        this.count = count == null ? 0 : count;
+        this.maxId = maxId == null ? 0 : maxId;
+        this.versionSum = versionSum == null ? 0 : versionSum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    public long getVersionSum() {
+        return versionSum;
+    }
+
+    @Override
+    public String toString() {
+        return count + "-" + maxId + "-" + versionSum;
+    }
+}
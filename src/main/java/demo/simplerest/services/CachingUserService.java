@@ -0,0 +1,315 @@
+package demo.simplerest.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.cache.UserInvalidationBus;
+import demo.simplerest.cache.UserSharedCache;
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+import demo.simplerest.repositories.UserTableVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache in front of {@link UserServiceImpl} for id and phone lookups.
+ * Cached users are copies, so callers never share a mutable instance with the cache.
+ * <p>
+ * In a cluster the local cache can be backed by a {@link UserSharedCache}, written through on every write, and
+ * kept in step with the other nodes by a {@link UserInvalidationBus}: a node that changes a user tells the others
+ * to drop their local copy once the write is done. A lost message is covered by the local TTL.
+ * <p>
+ * A value loaded on a miss is only cached if no eviction of its user happened while it was loading, and a
+ * cached user is never replaced by an older version, so a slow read cannot put back what a write just replaced.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "users.cache.enabled", matchIfMissing = true)
+public class CachingUserService implements UserService {
+    private static final int STAMP_STRIPES = 1024;
+
+    private final UserService delegate;
+    private final Cache<Long, User> usersById;
+    private final Cache<String, Long> idsByPhone;
+    private final LongAdder sharedHits = new LongAdder();
+    // evictions per id stripe, and of any id for loads by phone whose id is only known afterwards
+    private final AtomicLongArray evictions = new AtomicLongArray(STAMP_STRIPES);
+    private final AtomicLong allEvictions = new AtomicLong();
+    private UserSharedCache sharedCache;
+    private UserInvalidationBus invalidationBus;
+
+    public CachingUserService(@Qualifier("userStore") UserService delegate,
+                              @Value("${users.cache.maximum-size:10000}") long maximumSize,
+                              @Value("${users.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.delegate = delegate;
+        this.usersById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.idsByPhone = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Autowired(required = false)
+    public void setSharedCache(UserSharedCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    @Autowired(required = false)
+    public void setInvalidationBus(UserInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+        invalidationBus.subscribe(this::evict);
+    }
+
+    @Override
+    public void remove(Long userId) {
+        delegate.remove(userId);
+        evict(userId);
+        invalidateShared(userId);
+    }
+
+    @Override
+    public boolean remove(long userId, Long version) {
+        boolean removed = delegate.remove(userId, version);
+        evict(userId);
+        invalidateShared(userId);
+        return removed;
+    }
+
+    @Override
+    public User create(User user) throws InvalidDataException {
+        User created = delegate.create(user);
+        put(created);
+        return created;
+    }
+
+    @Override
+    public User update(User user) throws InvalidDataException {
+        evict(user.getId());
+        User updated = delegate.update(user);
+        // without an expected version the new one is unknown, so the next read reloads it
+        if (updated != null && updated.getVersion() != null) {
+            put(updated);
+            publish(updated.getId());
+        } else {
+            evict(user.getId());
+            invalidateShared(user.getId());
+        }
+        return updated;
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) throws InvalidDataException {
+        List<User> created = delegate.createAll(users);
+        created.forEach(this::put);
+        return created;
+    }
+
+    @Override
+    public List<User> updateAll(List<User> users) throws InvalidDataException {
+        users.forEach(user -> evict(user.getId()));
+        List<User> updated = delegate.updateAll(users);
+        updated.forEach(this::put);
+        updated.forEach(user -> publish(user.getId()));
+        return updated;
+    }
+
+    @Override
+    public int removeAll(Collection<Long> userIds) {
+        int removed = delegate.removeAll(userIds);
+        userIds.forEach(this::evict);
+        userIds.forEach(this::invalidateShared);
+        return removed;
+    }
+
+    @Override
+    public Map<Integer, String> importAll(List<User> users) {
+        Map<Integer, String> errors = delegate.importAll(users);
+        // skipped users have no id and are not cached
+        users.forEach(this::put);
+        return errors;
+    }
+
+    @Override
+    public List<User> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public UserTableVersion tableVersion() {
+        return delegate.tableVersion();
+    }
+
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public List<Object[]> findPage(long afterId, int limit, List<UserField> fields) {
+        return delegate.findPage(afterId, limit, fields);
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public User findById(long id) {
+        User cached = usersById.getIfPresent(id);
+        if (cached != null) {
+            return User.copyOf(cached);
+        }
+        if (sharedCache != null) {
+            User shared = sharedCache.get(id);
+            if (shared != null) {
+                sharedHits.increment();
+                putLocal(shared);
+                return shared;
+            }
+        }
+        long stamp = evictions.get(stripeOf(id));
+        User user = delegate.findById(id);
+        putLoaded(user, () -> evictions.get(stripeOf(id)) == stamp);
+        return user;
+    }
+
+    @Override
+    public List<User> findByName(String name) {
+        return delegate.findByName(name);
+    }
+
+    @Override
+    public List<User> findByName(String name, int offset, int limit) {
+        return delegate.findByName(name, offset, limit);
+    }
+
+    @Override
+    public List<Object[]> findByName(String name, int offset, int limit, List<UserField> fields) {
+        return delegate.findByName(name, offset, limit, fields);
+    }
+
+    @Override
+    public User findByPhone(String phone) {
+        Long id = phone == null ? null : idsByPhone.getIfPresent(phone);
+        if (id != null) {
+            User user = findById(id);
+            // the index is only a hint, the phone may have changed since it was recorded
+            if (user != null && phone.equals(user.getPhone())) {
+                return user;
+            }
+            idsByPhone.invalidate(phone);
+        }
+        long stamp = allEvictions.get();
+        User user = delegate.findByPhone(phone);
+        putLoaded(user, () -> allEvictions.get() == stamp);
+        return user;
+    }
+
+    public CacheStats stats() {
+        return usersById.stats();
+    }
+
+    public long size() {
+        return usersById.estimatedSize();
+    }
+
+    /**
+     * Local misses answered by the shared cache.
+     */
+    public long sharedHitCount() {
+        return sharedHits.sum();
+    }
+
+    private void put(User user) {
+        if (user == null || user.getId() == null) {
+            return;
+        }
+        putLocal(user);
+        if (sharedCache != null) {
+            sharedCache.put(user);
+        }
+    }
+
+    /**
+     * Caches a value read from the delegate, unless an eviction since the read began may have made it stale.
+     * The check is repeated after the put, for an eviction that ran between the first check and the put.
+     */
+    private void putLoaded(User user, BooleanSupplier unchanged) {
+        if (user == null || user.getId() == null || !unchanged.getAsBoolean()) {
+            return;
+        }
+        put(user);
+        if (!unchanged.getAsBoolean()) {
+            usersById.invalidate(user.getId());
+            if (sharedCache != null) {
+                sharedCache.evict(user.getId());
+            }
+        }
+    }
+
+    private void putLocal(User user) {
+        // a concurrent load may still be holding an older version
+        usersById.asMap().merge(user.getId(), User.copyOf(user), (cached, offered) ->
+                cached.getVersion() != null && offered.getVersion() != null
+                        && cached.getVersion() > offered.getVersion() ? cached : offered);
+        if (user.getPhone() != null) {
+            idsByPhone.put(user.getPhone(), user.getId());
+        }
+    }
+
+    private void evict(Long id) {
+        if (id == null) {
+            return;
+        }
+        evictions.incrementAndGet(stripeOf(id));
+        allEvictions.incrementAndGet();
+        User cached = usersById.asMap().get(id);
+        if (cached != null && cached.getPhone() != null) {
+            idsByPhone.invalidate(cached.getPhone());
+        }
+        usersById.invalidate(id);
+    }
+
+    private static int stripeOf(long id) {
+        return (int) (id & (STAMP_STRIPES - 1));
+    }
+
+    /**
+     * Drops the user from the shared cache and from the other nodes' local caches.
+     */
+    private void invalidateShared(Long id) {
+        if (id == null) {
+            return;
+        }
+        if (sharedCache != null) {
+            sharedCache.evict(id);
+        }
+        publish(id);
+    }
+
+    private void publish(long id) {
+        if (invalidationBus != null) {
+            invalidationBus.publish(id);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package demo.simplerest.services;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserTableVersion;
+import demo.simplerest.storage.UserLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * {@link UserService} over a {@link UserLog} instead of JPA, enabled with the {@code file-store} profile.
+ * Phones and names are indexed on the heap, rebuilt from the log at startup. Writes are serialized,
+ * which the log requires anyway; reads go to the log without locking the service.
+ */
+@Service
+@Qualifier("userStore")
+@Profile("file-store")
+public class FileUserService implements UserService {
+    private final UserLog userLog;
+    private final UserNamePrefixIndex userNameIndex = new UserNamePrefixIndex();
+    private final ConcurrentMap<String, Long> idsByPhone = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    private UserChangeFeed userChangeFeed;
+
+    public FileUserService(@Value("${users.file-store.directory:data}") String directory,
+                           @Value("${users.file-store.fsync:false}") boolean fsync,
+                           @Value("${users.file-store.compact-threshold-bytes:67108864}") long compactThreshold)
+            throws IOException {
+        this.userLog = new UserLog(Paths.get(directory), fsync, compactThreshold);
+        userLog.forEach(this::index);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        userLog.close();
+    }
+
+    @Override
+    public synchronized void remove(Long userId) {
+        if (!remove(userId, null)) {
+            throw new EmptyResultDataAccessException("No user with id " + userId + " exists", 1);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(long userId, Long version) {
+        User existing = userLog.get(userId);
+        if (existing == null) {
+            return false;
+        }
+        checkVersion(existing, version);
+        userLog.delete(userId);
+        unindex(existing);
+        publish(UserChange.Type.DELETED, userId, null);
+        return true;
+    }
+
+    @Override
+    public synchronized User create(User user) throws InvalidDataException {
+        validateUser(user, null);
+        user.setPhone(formatPhone(user.getPhone()));
+        user.setId(userLog.nextId());
+        user.setVersion(0l);
+        save(user, null, UserChange.Type.CREATED);
+        return user;
+    }
+
+    @Override
+    public synchronized User update(User user) throws InvalidDataException {
+        if (user.getId() == null) {
+            throw new InvalidDataException("id", "User id is mandatory");
+        }
+        validateUser(user, user.getId());
+        User existing = userLog.get(user.getId());
+        if (existing == null) {
+            return null;
+        }
+        checkVersion(existing, user.getVersion());
+        user.setPhone(formatPhone(user.getPhone()));
+        user.setVersion(existing.getVersion() + 1);
+        save(user, existing, UserChange.Type.UPDATED);
+        return user;
+    }
+
+    @Override
+    public synchronized List<User> createAll(List<User> users) throws InvalidDataException {
+        // preset ids must not count as batch members giving up their phones
+        users.forEach(user -> user.setId(null));
+        validateUsers(users);
+        for (User user : users) {
+            user.setPhone(formatPhone(user.getPhone()));
+            user.setId(userLog.nextId());
+            user.setVersion(0l);
+            save(user, null, UserChange.Type.CREATED);
+        }
+        return users;
+    }
+
+    @Override
+    public synchronized List<User> updateAll(List<User> users) throws InvalidDataException {
+        List<User> existing = new ArrayList<>(users.size());
+        for (User user : users) {
+            if (user.getId() == null) {
+                throw new InvalidDataException("id", "User id is mandatory");
+            }
+            User found = userLog.get(user.getId());
+            if (found == null) {
+                throw new InvalidDataException("id", "User with id " + user.getId() + " does not exist");
+            }
+            checkVersion(found, user.getVersion());
+            existing.add(found);
+        }
+        validateUsers(users);
+        // release every old phone first, so users may swap phones within the batch
+        existing.forEach(this::unindex);
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            user.setPhone(formatPhone(user.getPhone()));
+            user.setVersion(existing.get(i).getVersion() + 1);
+            save(user, null, UserChange.Type.UPDATED);
+        }
+        return users;
+    }
+
+    @Override
+    public synchronized int removeAll(Collection<Long> userIds) {
+        int removed = 0;
+        for (Long userId : userIds) {
+            if (remove(userId, null)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized Map<Integer, String> importAll(List<User> users) {
+        Map<Integer, String> errors = new TreeMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            try {
+                create(users.get(i));
+            } catch (InvalidDataException e) {
+                users.get(i).setId(null);
+                errors.put(i, e.getMessage());
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public List<User> findAll() {
+        List<User> users = new ArrayList<>();
+        userLog.forEach(users::add);
+        return users;
+    }
+
+    @Override
+    public UserTableVersion tableVersion() {
+        return new UserTableVersion(userLog.size(), userLog.maxId(), userLog.versionSum());
+    }
+
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        List<User> users = new ArrayList<>(limit);
+        userLog.forEachAfter(afterId, user -> {
+            users.add(user);
+            return users.size() < limit;
+        });
+        return users;
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) {
+        userLog.forEach(action);
+    }
+
+    @Override
+    public User findById(long id) {
+        return userLog.get(id);
+    }
+
+    @Override
+    public List<User> findByName(String name) {
+        return findByName(name, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<User> findByName(String name, int offset, int limit) {
+        return userNameIndex.findByPrefix(name, offset, limit);
+    }
+
+    @Override
+    public User findByPhone(String phone) {
+        Long id = phone == null ? null : idsByPhone.get(phone);
+        return id == null ? null : userLog.get(id);
+    }
+
+    private void save(User user, User previous, UserChange.Type change) {
+        userLog.put(user);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(user);
+        publish(change, user.getId(), user);
+    }
+
+    private void index(User user) {
+        userNameIndex.put(user);
+        if (!isFieldEmpty(user.getPhone())) {
+            idsByPhone.put(user.getPhone(), user.getId());
+        }
+    }
+
+    private void unindex(User user) {
+        userNameIndex.remove(user.getId());
+        if (!isFieldEmpty(user.getPhone())) {
+            idsByPhone.remove(user.getPhone(), user.getId());
+        }
+    }
+
+    private void publish(UserChange.Type change, long userId, User user) {
+        if (userChangeFeed != null) {
+            userChangeFeed.publish(change, userId, user);
+        }
+    }
+
+    private static void checkVersion(User existing, Long version) {
+        if (version != null && !version.equals(existing.getVersion())) {
+            throw new OptimisticLockingFailureException("User " + existing.getId() + " was modified concurrently");
+        }
+    }
+
+    private String formatPhone(String phone) {
+        return phone == null ? null : phone.trim();
+    }
+
+    private void validateUser(User user, Long ownerId) throws InvalidDataException {
+        UserValidator.validateFields(user);
+        if (!isFieldEmpty(user.getPhone())) {
+            Long foundId = idsByPhone.get(user.getPhone().trim());
+            if (foundId != null && !foundId.equals(ownerId)) {
+                throw new InvalidDataException("phone", "User with such phone already exists");
+            }
+        }
+    }
+
+    /**
+     * Phones must be unique within the batch and may only be taken from users outside it if those are part of
+     * the batch too, which then move to other phones, so users can swap phones in one {@link #updateAll}.
+     */
+    private void validateUsers(List<User> users) throws InvalidDataException {
+        UserValidator.validateFields(users);
+        Map<String, Long> ownersByPhone = new HashMap<>();
+        Set<Long> batchIds = new HashSet<>();
+        for (User user : users) {
+            if (user.getId() != null) {
+                batchIds.add(user.getId());
+            }
+            if (!isFieldEmpty(user.getPhone())) {
+                String phone = user.getPhone().trim();
+                if (ownersByPhone.containsKey(phone)) {
+                    throw new InvalidDataException("phone", "User with such phone already exists");
+                }
+                ownersByPhone.put(phone, user.getId());
+            }
+        }
+        for (Map.Entry<String, Long> owner : ownersByPhone.entrySet()) {
+            Long foundId = idsByPhone.get(owner.getKey());
+            if (foundId != null && !foundId.equals(owner.getValue()) && !batchIds.contains(foundId)) {
+                throw new InvalidDataException("phone", "User with such phone already exists");
+            }
+        }
+    }
+
+    private boolean isFieldEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
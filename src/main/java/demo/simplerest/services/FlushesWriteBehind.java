@@ -0,0 +1,17 @@
+package demo.simplerest.services;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link UserServiceImpl} method the {@link UserWriteBehind} buffer cannot answer. With
+ * {@code users.write-behind.enabled=true} the buffer is flushed before the method, and before its transaction.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface FlushesWriteBehind {
+}
@@ -0,0 +1,15 @@
+package demo.simplerest.services;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches unless a profile that replaces the JPA user store is active.
+ */
+class JpaStoreCondition implements Condition {
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        return !context.getEnvironment().acceptsProfiles("file-store", "sharded");
+    }
+}
@@ -0,0 +1,457 @@
+package demo.simplerest.services;
+
+import com.zaxxer.hikari.HikariDataSource;
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserTableVersion;
+import demo.simplerest.storage.UserShard;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * {@link UserService} over {@code users.shards.count} databases, enabled with the {@code sharded} profile.
+ * A user lives on the shard picked by its id, so id lookups and writes touch one database; name, phone
+ * and whole-table queries are sent to every shard in parallel and merged here.
+ * <p>
+ * No database sees all phones, so uniqueness is checked across shards under a per-phone lock striped
+ * in this process. Batches are atomic per shard only.
+ */
+@Service
+@Qualifier("userStore")
+@Profile("sharded")
+public class ShardedUserService implements UserService {
+    private static final int PHONE_LOCK_STRIPES = 64;
+    private static final int FOR_EACH_PAGE_SIZE = 500;
+    private static final int MAX_IN_LIST_SIZE = 1000;
+    private static final Comparator<User> BY_ID = Comparator.comparing(User::getId);
+    private static final Comparator<User> BY_NAME = Comparator.comparing((User user) -> User.lowerCase(user.getName()))
+            .thenComparing(User::getId);
+
+    private final List<UserShard> shards = new ArrayList<>();
+    private final List<HikariDataSource> shardPools = new ArrayList<>();
+    private final ExecutorService scatterExecutor;
+    private final ReentrantLock[] phoneLocks = new ReentrantLock[PHONE_LOCK_STRIPES];
+    private final AtomicLong lastId;
+
+    @Autowired(required = false)
+    private UserChangeFeed userChangeFeed;
+
+    public ShardedUserService(@Value("${users.shards.count:4}") int shardCount,
+                              @Value("${users.shards.url:jdbc:h2:mem:users-shard-{shard};DB_CLOSE_DELAY=-1}") String url) {
+        for (int shard = 0; shard < shardCount; shard++) {
+            HikariDataSource pool = (HikariDataSource) DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(url.replace("{shard}", Integer.toString(shard)))
+                    .username("sa")
+                    .build();
+            shardPools.add(pool);
+            UserShard userShard = new UserShard(pool);
+            userShard.createSchema();
+            shards.add(userShard);
+        }
+        for (int i = 0; i < PHONE_LOCK_STRIPES; i++) {
+            phoneLocks[i] = new ReentrantLock();
+        }
+        scatterExecutor = Executors.newFixedThreadPool(shardCount * 2);
+        lastId = new AtomicLong(scatter(UserShard::maxId).stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scatterExecutor.shutdown();
+        shardPools.forEach(HikariDataSource::close);
+    }
+
+    @Override
+    public void remove(Long userId) {
+        if (shardOf(userId).delete(userId, null) == 0) {
+            throw new EmptyResultDataAccessException("No user with id " + userId + " exists", 1);
+        }
+        publish(UserChange.Type.DELETED, userId, null);
+    }
+
+    @Override
+    public boolean remove(long userId, Long version) {
+        UserShard shard = shardOf(userId);
+        if (shard.delete(userId, version) == 0) {
+            if (version != null && shard.findById(userId) != null) {
+                throw new OptimisticLockingFailureException("User " + userId + " was modified concurrently");
+            }
+            return false;
+        }
+        publish(UserChange.Type.DELETED, userId, null);
+        return true;
+    }
+
+    @Override
+    public User create(User user) throws InvalidDataException {
+        UserValidator.validateFields(user);
+        user.setPhone(formatPhone(user.getPhone()));
+        List<String> phones = phonesOf(Collections.singletonList(user));
+        lockPhones(phones);
+        try {
+            checkPhonesFree(Collections.singletonMap(user.getPhone(), null), phones);
+            user.setId(lastId.incrementAndGet());
+            user.setVersion(0l);
+            shardOf(user.getId()).insertAll(Collections.singletonList(user));
+        } finally {
+            unlockPhones(phones);
+        }
+        publish(UserChange.Type.CREATED, user.getId(), user);
+        return user;
+    }
+
+    @Override
+    public User update(User user) throws InvalidDataException {
+        if (user.getId() == null) {
+            throw new InvalidDataException("id", "User id is mandatory");
+        }
+        UserValidator.validateFields(user);
+        user.setPhone(formatPhone(user.getPhone()));
+        List<String> phones = phonesOf(Collections.singletonList(user));
+        UserShard shard = shardOf(user.getId());
+        lockPhones(phones);
+        try {
+            checkPhonesFree(Collections.singletonMap(user.getPhone(), user.getId()), phones);
+            Long version = user.getVersion();
+            if (shard.update(user, version) == 0) {
+                if (version != null && shard.findById(user.getId()) != null) {
+                    throw new OptimisticLockingFailureException("User " + user.getId() + " was modified concurrently");
+                }
+                return null;
+            }
+            if (version != null) {
+                user.setVersion(version + 1);
+            }
+        } finally {
+            unlockPhones(phones);
+        }
+        publish(UserChange.Type.UPDATED, user.getId(), user);
+        return user;
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) throws InvalidDataException {
+        users.forEach(user -> user.setId(null));
+        Map<String, Long> ownersByPhone = validateUsers(users);
+        List<String> phones = new ArrayList<>(ownersByPhone.keySet());
+        lockPhones(phones);
+        try {
+            checkPhonesFree(ownersByPhone, phones);
+            for (User user : users) {
+                user.setPhone(formatPhone(user.getPhone()));
+                user.setId(lastId.incrementAndGet());
+                user.setVersion(0l);
+            }
+            gather(users, UserShard::insertAll);
+        } finally {
+            unlockPhones(phones);
+        }
+        users.forEach(user -> publish(UserChange.Type.CREATED, user.getId(), user));
+        return users;
+    }
+
+    @Override
+    public List<User> updateAll(List<User> users) throws InvalidDataException {
+        for (User user : users) {
+            if (user.getId() == null) {
+                throw new InvalidDataException("id", "User id is mandatory");
+            }
+        }
+        Map<String, Long> ownersByPhone = validateUsers(users);
+        List<String> phones = new ArrayList<>(ownersByPhone.keySet());
+        lockPhones(phones);
+        try {
+            checkPhonesFree(ownersByPhone, phones);
+            Map<Long, User> existing = findByIds(users.stream().map(User::getId).collect(Collectors.toList()));
+            for (User user : users) {
+                User found = existing.get(user.getId());
+                if (found == null) {
+                    throw new InvalidDataException("id", "User with id " + user.getId() + " does not exist");
+                }
+                if (user.getVersion() != null && !user.getVersion().equals(found.getVersion())) {
+                    throw new OptimisticLockingFailureException("User " + user.getId() + " was modified concurrently");
+                }
+                user.setPhone(formatPhone(user.getPhone()));
+                user.setVersion(found.getVersion());
+            }
+            gather(users, UserShard::updateAll);
+            users.forEach(user -> user.setVersion(user.getVersion() + 1));
+        } finally {
+            unlockPhones(phones);
+        }
+        users.forEach(user -> publish(UserChange.Type.UPDATED, user.getId(), user));
+        return users;
+    }
+
+    @Override
+    public int removeAll(Collection<Long> userIds) {
+        Map<UserShard, List<Long>> idsByShard = userIds.stream().collect(Collectors.groupingBy(this::shardOf));
+        List<List<Long>> removed = join(idsByShard.entrySet().stream()
+                .map(entry -> CompletableFuture.supplyAsync(() -> entry.getKey().deleteAll(entry.getValue()), scatterExecutor))
+                .collect(Collectors.toList()));
+        // ids that did not exist were not deleted and are not reported as such
+        removed.forEach(ids -> ids.forEach(userId -> publish(UserChange.Type.DELETED, userId, null)));
+        return removed.stream().mapToInt(List::size).sum();
+    }
+
+    @Override
+    public Map<Integer, String> importAll(List<User> users) {
+        Map<Integer, String> errors = new TreeMap<>();
+        Map<String, Integer> positionsByPhone = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            user.setId(null);
+            List<InvalidDataException.FieldError> fieldErrors = UserValidator.checkFields(user);
+            if (!fieldErrors.isEmpty()) {
+                errors.put(i, fieldErrors.get(0).getMessage());
+                continue;
+            }
+            user.setPhone(formatPhone(user.getPhone()));
+            if (!isFieldEmpty(user.getPhone()) && positionsByPhone.putIfAbsent(user.getPhone(), i) != null) {
+                errors.put(i, "User with such phone already exists");
+            }
+        }
+        List<String> phones = new ArrayList<>(positionsByPhone.keySet());
+        List<User> valid = new ArrayList<>();
+        lockPhones(phones);
+        try {
+            for (User found : findByPhones(phones)) {
+                errors.put(positionsByPhone.get(found.getPhone()), "User with such phone already exists");
+            }
+            for (int i = 0; i < users.size(); i++) {
+                if (!errors.containsKey(i)) {
+                    User user = users.get(i);
+                    user.setId(lastId.incrementAndGet());
+                    user.setVersion(0l);
+                    valid.add(user);
+                }
+            }
+            gather(valid, UserShard::insertAll);
+        } finally {
+            unlockPhones(phones);
+        }
+        valid.forEach(user -> publish(UserChange.Type.CREATED, user.getId(), user));
+        return errors;
+    }
+
+    @Override
+    public List<User> findAll() {
+        List<User> users = new ArrayList<>();
+        forEach(users::add);
+        return users;
+    }
+
+    @Override
+    public UserTableVersion tableVersion() {
+        long count = 0;
+        long maxId = 0;
+        long versionSum = 0;
+        for (UserTableVersion version : scatter(UserShard::tableVersion)) {
+            count += version.getCount();
+            maxId = Math.max(maxId, version.getMaxId());
+            versionSum += version.getVersionSum();
+        }
+        return new UserTableVersion(count, maxId, versionSum);
+    }
+
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        return merge(scatter(shard -> shard.findPage(afterId, limit)), BY_ID, 0, limit);
+    }
+
+    @Override
+    public void forEach(Consumer<User> action) {
+        long afterId = 0;
+        List<User> page;
+        do {
+            page = findPage(afterId, FOR_EACH_PAGE_SIZE);
+            page.forEach(action);
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == FOR_EACH_PAGE_SIZE);
+    }
+
+    @Override
+    public User findById(long id) {
+        return shardOf(id).findById(id);
+    }
+
+    @Override
+    public List<User> findByName(String name) {
+        return findByName(name, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<User> findByName(String name, int offset, int limit) {
+        String prefix = escapeLike(User.lowerCase(name)) + "%";
+        // any shard may hold the whole requested window
+        int window = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        return merge(scatter(shard -> shard.findByNameLowerPrefix(prefix, window)), BY_NAME, offset, limit);
+    }
+
+    @Override
+    public User findByPhone(String phone) {
+        List<User> users = findByPhones(Collections.singletonList(phone));
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    private UserShard shardOf(long id) {
+        // ids are handed out sequentially, so plain modulo spreads them evenly
+        return shards.get((int) Math.floorMod(id, (long) shards.size()));
+    }
+
+    private <T> List<T> scatter(Function<UserShard, T> query) {
+        return join(shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Runs the write on every shard owning some of the users, in parallel.
+     */
+    private void gather(List<User> users, BiConsumer<UserShard, List<User>> write) {
+        Map<UserShard, List<User>> usersByShard = users.stream().collect(Collectors.groupingBy(user -> shardOf(user.getId())));
+        join(usersByShard.entrySet().stream()
+                .map(entry -> CompletableFuture.runAsync(() -> write.accept(entry.getKey(), entry.getValue()), scatterExecutor))
+                .collect(Collectors.toList()));
+    }
+
+    private static <T> List<T> join(List<CompletableFuture<T>> futures) {
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<User> merge(List<List<User>> results, Comparator<User> order, int offset, int limit) {
+        return results.stream()
+                .flatMap(List::stream)
+                .sorted(order)
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private Map<Long, User> findByIds(List<Long> ids) {
+        Map<Long, User> users = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size()));
+            Map<UserShard, List<Long>> idsByShard = chunk.stream().collect(Collectors.groupingBy(this::shardOf));
+            join(idsByShard.entrySet().stream()
+                    .map(entry -> CompletableFuture.supplyAsync(() -> entry.getKey().findByIdIn(entry.getValue()), scatterExecutor))
+                    .collect(Collectors.toList()))
+                    .forEach(found -> found.forEach(user -> users.put(user.getId(), user)));
+        }
+        return users;
+    }
+
+    private List<User> findByPhones(List<String> phones) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < phones.size(); i += MAX_IN_LIST_SIZE) {
+            List<String> chunk = phones.subList(i, Math.min(i + MAX_IN_LIST_SIZE, phones.size()));
+            scatter(shard -> shard.findByPhoneIn(chunk)).forEach(users::addAll);
+        }
+        return users;
+    }
+
+    /**
+     * Fails if any of the phones belongs to a user other than the one it is meant for.
+     */
+    private void checkPhonesFree(Map<String, Long> ownersByPhone, List<String> phones) throws InvalidDataException {
+        for (User found : findByPhones(phones)) {
+            if (!found.getId().equals(ownersByPhone.get(found.getPhone()))) {
+                throw new InvalidDataException("phone", "User with such phone already exists");
+            }
+        }
+    }
+
+    /**
+     * Locks the stripes of all phones in a fixed order, so concurrent batches can not deadlock.
+     */
+    private void lockPhones(List<String> phones) {
+        stripesOf(phones).forEach(stripe -> phoneLocks[stripe].lock());
+    }
+
+    private void unlockPhones(List<String> phones) {
+        stripesOf(phones).descendingSet().forEach(stripe -> phoneLocks[stripe].unlock());
+    }
+
+    private static TreeSet<Integer> stripesOf(List<String> phones) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        phones.forEach(phone -> stripes.add(Math.floorMod(phone.hashCode(), PHONE_LOCK_STRIPES)));
+        return stripes;
+    }
+
+    private List<String> phonesOf(List<User> users) {
+        return users.stream()
+                .map(User::getPhone)
+                .filter(phone -> !isFieldEmpty(phone))
+                .collect(Collectors.toList());
+    }
+
+    private void publish(UserChange.Type change, long userId, User user) {
+        if (userChangeFeed != null) {
+            userChangeFeed.publish(change, userId, user);
+        }
+    }
+
+    private Map<String, Long> validateUsers(List<User> users) throws InvalidDataException {
+        UserValidator.validateFields(users);
+        Map<String, Long> ownersByPhone = new HashMap<>();
+        for (User user : users) {
+            if (!isFieldEmpty(user.getPhone())) {
+                String phone = user.getPhone().trim();
+                if (ownersByPhone.containsKey(phone)) {
+                    throw new InvalidDataException("phone", "User with such phone already exists");
+                }
+                ownersByPhone.put(phone, user.getId());
+            }
+        }
+        return ownersByPhone;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private String formatPhone(String phone) {
+        return phone == null ? null : phone.trim();
+    }
+
+    private boolean isFieldEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,50 @@
+package demo.simplerest.services;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Component
+@ConditionalOnProperty(name = "users.cache.enabled", matchIfMissing = true)
+public class UserCacheMetrics implements PublicMetrics, MeterBinder {
+
+    @Autowired
+    private CachingUserService cachingUserService;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = cachingUserService.stats();
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("cache.users.size", cachingUserService.size()));
+        metrics.add(new Metric<>("cache.users.hit", stats.hitCount()));
+        metrics.add(new Metric<>("cache.users.miss", stats.missCount()));
+        metrics.add(new Metric<>("cache.users.eviction", stats.evictionCount()));
+        metrics.add(new Metric<>("cache.users.hit.ratio", stats.hitRate()));
+        metrics.add(new Metric<>("cache.users.shared.hit", cachingUserService.sharedHitCount()));
+        return metrics;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cache.users.size", cachingUserService, CachingUserService::size).register(registry);
+        FunctionCounter.builder("cache.users.hit", cachingUserService, service -> service.stats().hitCount())
+                .register(registry);
+        FunctionCounter.builder("cache.users.miss", cachingUserService, service -> service.stats().missCount())
+                .register(registry);
+        FunctionCounter.builder("cache.users.eviction", cachingUserService, service -> service.stats().evictionCount())
+                .register(registry);
+        FunctionCounter.builder("cache.users.shared.hit", cachingUserService, CachingUserService::sharedHitCount)
+                .register(registry);
+    }
+}
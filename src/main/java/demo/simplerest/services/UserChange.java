@@ -0,0 +1,41 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+
+/**
+ * One committed mutation in the {@link UserChangeFeed}. {@code user} is the state after the change
+ * and is {@code null} for deletions.
+ */
+public class UserChange {
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long userId;
+    private final User user;
+
+    UserChange(long sequence, Type type, long userId, User user) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userId = userId;
+        this.user = user;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
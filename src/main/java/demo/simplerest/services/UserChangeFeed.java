@@ -0,0 +1,67 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded ring buffer of the last {@code users.changes.capacity} committed user mutations, numbered
+ * from 1. Publishing only overwrites the oldest slot and pokes the listeners, so readers that fall
+ * behind lose their place instead of holding up writers.
+ */
+@Component
+@ConditionalOnProperty(name = "users.changes.enabled", matchIfMissing = true)
+public class UserChangeFeed {
+    private final UserChange[] changes;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private long lastSequence;
+
+    public UserChangeFeed(@Value("${users.changes.capacity:10000}") int capacity) {
+        this.changes = new UserChange[capacity];
+    }
+
+    public void publish(UserChange.Type type, long userId, User user) {
+        User copy = user == null ? null : User.copyOf(user);
+        synchronized (this) {
+            lastSequence++;
+            changes[(int) (lastSequence % changes.length)] = new UserChange(lastSequence, type, userId, copy);
+        }
+        // listeners must only schedule work, they run on the writing thread
+        listeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Up to {@code max} changes following {@code sequence}, or {@code null} when some of them were already overwritten.
+     */
+    public synchronized List<UserChange> readAfter(long sequence, int max) {
+        if (!isAvailable(sequence)) {
+            return null;
+        }
+        List<UserChange> result = new ArrayList<>();
+        for (long next = sequence + 1; next <= lastSequence && result.size() < max; next++) {
+            result.add(changes[(int) (next % changes.length)]);
+        }
+        return result;
+    }
+
+    public synchronized boolean isAvailable(long sequence) {
+        return sequence >= lastSequence - changes.length && sequence <= lastSequence;
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+}
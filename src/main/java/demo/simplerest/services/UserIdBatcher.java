@@ -0,0 +1,159 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the distinct {@code findById} calls arriving within {@code users.coalescing.batching.window-ms}
+ * into one {@code where id in (...)} query. Every call waits up to the window, so this pays off only
+ * when lookups arrive faster than the database answers them one by one.
+ * <p>
+ * The query runs on a connection of its own, so callers must not wait for it inside a transaction: with every
+ * pooled connection held by a waiting caller, the batch would never get one.
+ */
+@Component
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.coalescing.batching.enabled")
+public class UserIdBatcher implements MeterBinder {
+    private final UserRepository userRepository;
+    private final long windowNanos;
+    private final int maxSize;
+    private final BlockingQueue<Lookup> lookups = new LinkedBlockingQueue<>();
+    private final ThreadPoolTaskExecutor queryExecutor = new ThreadPoolTaskExecutor();
+    private final Thread collector;
+    private volatile boolean stopped;
+    private volatile DistributionSummary batchSizes;
+
+    public UserIdBatcher(UserRepository userRepository,
+                         @Value("${users.coalescing.batching.window-ms:2}") long windowMillis,
+                         @Value("${users.coalescing.batching.max-size:100}") int maxSize,
+                         @Value("${users.coalescing.batching.threads:4}") int threads) {
+        this.userRepository = userRepository;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxSize = maxSize;
+        queryExecutor.setCorePoolSize(threads);
+        queryExecutor.setMaxPoolSize(threads);
+        queryExecutor.setThreadNamePrefix("user-batch-");
+        // batches already handed over still answer their callers on shutdown
+        queryExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        queryExecutor.initialize();
+        collector = new Thread(this::collect, "user-batch-collector");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    /**
+     * Lookups not yet handed to the query executor fail, instead of leaving their callers waiting forever.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopped = true;
+        collector.interrupt();
+        collector.join(TimeUnit.SECONDS.toMillis(5));
+        queryExecutor.shutdown();
+        List<Lookup> abandoned = new ArrayList<>();
+        lookups.drainTo(abandoned);
+        fail(abandoned);
+    }
+
+    public User findById(long id) {
+        Lookup lookup = new Lookup(id);
+        lookups.add(lookup);
+        if (stopped) {
+            // shutdown may have drained the queue before the lookup got into it
+            fail(Collections.singletonList(lookup));
+        }
+        try {
+            return lookup.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        batchSizes = DistributionSummary.builder("users.lookups.batch.size")
+                .description("findById calls merged into one query")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+
+    private void collect() {
+        List<Lookup> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(lookups.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxSize) {
+                    Lookup next = lookups.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                List<Lookup> collected = batch;
+                queryExecutor.execute(() -> load(collected));
+                batch = new ArrayList<>();
+            }
+        } catch (InterruptedException e) {
+            fail(batch);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void fail(List<Lookup> abandoned) {
+        IllegalStateException shutDown = new IllegalStateException("User lookups are shut down");
+        abandoned.forEach(lookup -> lookup.result.completeExceptionally(shutDown));
+    }
+
+    private void load(List<Lookup> batch) {
+        try {
+            List<Long> ids = batch.stream().map(lookup -> lookup.id).distinct().collect(Collectors.toList());
+            Map<Long, User> users = userRepository.findAll(ids).stream()
+                    .collect(Collectors.toMap(User::getId, Function.identity()));
+            if (batchSizes != null) {
+                batchSizes.record(batch.size());
+            }
+            // callers asking for the same id get their own instance
+            for (Lookup lookup : batch) {
+                User user = users.get(lookup.id);
+                lookup.result.complete(user == null ? null : User.copyOf(user));
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(lookup -> lookup.result.completeExceptionally(e));
+        }
+    }
+
+    private static class Lookup {
+        final long id;
+        final CompletableFuture<User> result = new CompletableFuture<>();
+
+        Lookup(long id) {
+            this.id = id;
+        }
+    }
+}
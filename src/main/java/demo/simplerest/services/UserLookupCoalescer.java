@@ -0,0 +1,61 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.replica.ReadConsistency;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Single-flight lookups for {@link UserServiceImpl}, so a burst of identical reads costs one query.
+ * <p>
+ * A lookup that has to see the caller's own writes, {@link ReadConsistency#requiredSequence()} above 0, runs on
+ * its own: the load in flight may belong to another client and have been answered by a replica that lags behind.
+ */
+@Component
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.coalescing.enabled", matchIfMissing = true)
+public class UserLookupCoalescer implements MeterBinder {
+    private final SingleFlight<Long, User> byId = new SingleFlight<>(user -> user == null ? null : User.copyOf(user));
+    private final SingleFlight<List<Object>, List<User>> byName = new SingleFlight<>(
+            users -> users.stream().map(User::copyOf).collect(Collectors.toList()));
+
+    public User findById(long id, Supplier<User> loader) {
+        if (ReadConsistency.requiredSequence() > 0) {
+            return loader.get();
+        }
+        return byId.execute(id, loader);
+    }
+
+    public List<User> findByName(String name, int offset, int limit, Supplier<List<User>> loader) {
+        if (ReadConsistency.requiredSequence() > 0) {
+            return loader.get();
+        }
+        return byName.execute(Arrays.asList(User.lowerCase(name), offset, limit), loader);
+    }
+
+    public void changed(long id) {
+        byId.forget(id);
+        byName.forgetAll();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.lookups.coalesced", byId, SingleFlight::coalesced)
+                .description("Lookups that shared the result of an identical query already in flight")
+                .tags("query", "findById")
+                .register(registry);
+        FunctionCounter.builder("users.lookups.coalesced", byName, SingleFlight::coalesced)
+                .description("Lookups that shared the result of an identical query already in flight")
+                .tags("query", "findByName")
+                .register(registry);
+    }
+}
@@ -0,0 +1,33 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
+
+/**
+ * Sorted in-memory copy of all users keyed by lower-cased name, for typeahead lookups that
+ * should not reach the database at all. Kept up to date by {@link UserServiceImpl}.
+ */
+@Component
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.name-index.enabled")
+public class UserNameIndex extends UserNamePrefixIndex {
+    @Autowired
+    private UserRepository userRepository;
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void warmUp() {
+        try (Stream<User> users = userRepository.streamAllOrderById()) {
+            users.forEach(this::put);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted in-memory copy of users keyed by lower-cased name, answering prefix lookups in the order of the
+ * database's name query. Its owner keeps it up to date.
+ */
+public class UserNamePrefixIndex {
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final ConcurrentNavigableMap<String, User> usersByName = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, String> keysById = new ConcurrentHashMap<>();
+
+    public void put(User user) {
+        String key = keyOf(user.getNameLower() == null ? User.lowerCase(user.getName()) : user.getNameLower(), user.getId());
+        User copy = User.copyOf(user);
+        keysById.compute(user.getId(), (id, previousKey) -> {
+            if (previousKey != null && !previousKey.equals(key)) {
+                usersByName.remove(previousKey);
+            }
+            usersByName.put(key, copy);
+            return key;
+        });
+    }
+
+    public void remove(long id) {
+        keysById.computeIfPresent(id, (key, previousKey) -> {
+            usersByName.remove(previousKey);
+            return null;
+        });
+    }
+
+    public List<User> findByPrefix(String prefix, int offset, int limit) {
+        String from = User.lowerCase(prefix);
+        Iterator<User> matches = usersByName.subMap(from, true, from + Character.MAX_VALUE, true).values().iterator();
+        List<User> users = new ArrayList<>();
+        for (int skipped = 0; skipped < offset && matches.hasNext(); skipped++) {
+            matches.next();
+        }
+        while (users.size() < limit && matches.hasNext()) {
+            users.add(User.copyOf(matches.next()));
+        }
+        return users;
+    }
+
+    public int size() {
+        return keysById.size();
+    }
+
+    private static String keyOf(String nameLower, long id) {
+        // fixed-width id keeps users sharing a name in id order, as the database query does
+        return nameLower + KEY_SEPARATOR + String.format("%019d", id);
+    }
+}
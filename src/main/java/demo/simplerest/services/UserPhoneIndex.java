@@ -0,0 +1,94 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * In-memory owner of every phone number, so {@link UserServiceImpl} can decide uniqueness without
+ * a database read. A phone is claimed with an atomic {@code putIfAbsent} before the write and then
+ * either confirmed with the committed user or released; the unique column stays the last line of defence.
+ */
+@Component
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.phone-index.enabled")
+public class UserPhoneIndex {
+    private final ConcurrentMap<String, Long> idsByPhone = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, String> phonesById = new ConcurrentHashMap<>();
+    // negative, so a pending create can never be mistaken for a stored user
+    private final AtomicLong reservations = new AtomicLong();
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void warmUp() {
+        try (Stream<User> users = userRepository.streamAllOrderById()) {
+            users.forEach(this::put);
+        }
+    }
+
+    /**
+     * Owner to reserve a phone for a user that has no id yet.
+     */
+    public long newReservation() {
+        return reservations.decrementAndGet();
+    }
+
+    /**
+     * Claims the phone for the owner, {@code false} if it already belongs to someone else.
+     */
+    public boolean reserve(String phone, long owner) {
+        Long current = idsByPhone.putIfAbsent(phone, owner);
+        return current == null || current == owner;
+    }
+
+    /**
+     * Gives up a claim that was not confirmed by {@link #put}. The owner's stored phone is kept.
+     */
+    public void release(String phone, long owner) {
+        if (!phone.equals(phonesById.get(owner))) {
+            idsByPhone.remove(phone, owner);
+        }
+    }
+
+    public void put(User user) {
+        String phone = user.getPhone() == null || user.getPhone().isEmpty() ? null : user.getPhone();
+        phonesById.compute(user.getId(), (id, previousPhone) -> {
+            if (previousPhone != null && !previousPhone.equals(phone)) {
+                idsByPhone.remove(previousPhone, id);
+            }
+            if (phone != null) {
+                idsByPhone.put(phone, id);
+            }
+            return phone;
+        });
+    }
+
+    public void remove(long id) {
+        phonesById.computeIfPresent(id, (key, previousPhone) -> {
+            idsByPhone.remove(previousPhone, id);
+            return null;
+        });
+    }
+
+    public Long ownerOf(String phone) {
+        return idsByPhone.get(phone);
+    }
+
+    public int size() {
+        return phonesById.size();
+    }
+}
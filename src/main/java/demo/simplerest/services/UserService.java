@@ -2,21 +2,62 @@ package demo.simplerest.services;
 
 import demo.simplerest.InvalidDataException;
 import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+import demo.simplerest.repositories.UserTableVersion;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface UserService {
     void remove(Long userId);
 
+    boolean remove(long userId, Long version);
+
     User create(User user) throws InvalidDataException;
 
     User update(User user) throws InvalidDataException;
 
+    List<User> createAll(List<User> users) throws InvalidDataException;
+
+    List<User> updateAll(List<User> users) throws InvalidDataException;
+
+    int removeAll(Collection<Long> userIds);
+
+    /**
+     * Creates the valid users and skips the rest, returning the validation error of each skipped user by its position.
+     */
+    Map<Integer, String> importAll(List<User> users);
+
     List<User> findAll();
 
+    UserTableVersion tableVersion();
+
+    List<User> findPage(long afterId, int limit);
+
+    /**
+     * The selected fields of each user of {@link #findPage(long, int)}. Stores that can read single columns
+     * override this; the default projects full users.
+     */
+    default List<Object[]> findPage(long afterId, int limit, List<UserField> fields) {
+        return UserField.project(findPage(afterId, limit), fields);
+    }
+
+    void forEach(Consumer<User> action);
+
     User findById(long id);
 
     List<User> findByName(String name);
 
+    List<User> findByName(String name, int offset, int limit);
+
+    /**
+     * The selected fields of each user of {@link #findByName(String, int, int)}, see {@link #findPage(long, int, List)}.
+     */
+    default List<Object[]> findByName(String name, int offset, int limit, List<UserField> fields) {
+        return UserField.project(findByName(name, offset, limit), fields);
+    }
+
     User findByPhone(String phone);
 }
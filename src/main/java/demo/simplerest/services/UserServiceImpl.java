@@ -2,56 +2,510 @@ package demo.simplerest.services;
 
 import demo.simplerest.InvalidDataException;
 import demo.simplerest.entities.User;
+import demo.simplerest.repositories.OffsetLimitRequest;
+import demo.simplerest.repositories.UserField;
 import demo.simplerest.repositories.UserRepository;
+import demo.simplerest.repositories.UserTableVersion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Qualifier("userStore")
+@Conditional(JpaStoreCondition.class)
 public class UserServiceImpl implements UserService {
+    // matches hibernate.jdbc.batch_size so every flush sends full JDBC batches
+    private static final int FLUSH_SIZE = 50;
+    private static final int MAX_IN_LIST_SIZE = 1000;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired(required = false)
+    private UserNameIndex userNameIndex;
+
+    @Autowired(required = false)
+    private UserPhoneIndex userPhoneIndex;
+
+    @Autowired(required = false)
+    private UserChangeFeed userChangeFeed;
+
+    @Autowired(required = false)
+    private UserLookupCoalescer userLookupCoalescer;
+
+    @Autowired(required = false)
+    private UserIdBatcher userIdBatcher;
+
+    @Autowired(required = false)
+    private UserWriteBehind userWriteBehind;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Override
+    @FlushesWriteBehind
     public User create(User user) throws InvalidDataException {
         validateUser(user);
         user.setId(null);
+        user.setVersion(null);
         user.setPhone(formatPhone(user.getPhone()));
-        return userRepository.save(user);
+        long reservation = reservePhone(user.getPhone(), null);
+        try {
+            User created = userRepository.save(user);
+            index(created, UserChange.Type.CREATED);
+            return created;
+        } finally {
+            releasePhone(user.getPhone(), reservation);
+        }
     }
 
     @Override
     public User update(User user) throws InvalidDataException {
+        if (user.getId() == null) {
+            throw new InvalidDataException("id", "User id is mandatory");
+        }
         validateUser(user);
         user.setPhone(formatPhone(user.getPhone()));
-        return userRepository.save(user);
+        Long version = user.getVersion();
+        String nameLower = User.lowerCase(user.getName());
+        long reservation = reservePhone(user.getPhone(), user.getId());
+        try {
+            if (userWriteBehind != null) {
+                return updateBehind(user);
+            }
+            int updated = version == null
+                    ? userRepository.updateById(user.getId(), user.getName(), nameLower, user.getPhone())
+                    : userRepository.updateByIdAndVersion(user.getId(), version, user.getName(), nameLower, user.getPhone());
+            if (updated == 0) {
+                checkNotModifiedConcurrently(user.getId(), version);
+                return null;
+            }
+            if (version != null) {
+                user.setVersion(version + 1);
+            }
+            index(user, UserChange.Type.UPDATED);
+            return user;
+        } finally {
+            releasePhone(user.getPhone(), reservation);
+        }
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(rollbackFor = InvalidDataException.class)
+    public List<User> createAll(List<User> users) throws InvalidDataException {
+        users.forEach(user -> {
+            user.setId(null);
+            user.setVersion(null);
+        });
+        validateUsers(users);
+        reservePhones(users);
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            user.setPhone(formatPhone(user.getPhone()));
+            entityManager.persist(user);
+            if ((i + 1) % FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        users.forEach(user -> index(user, UserChange.Type.CREATED));
+        return users;
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(rollbackFor = InvalidDataException.class)
+    public List<User> updateAll(List<User> users) throws InvalidDataException {
+        for (User user : users) {
+            if (user.getId() == null) {
+                throw new InvalidDataException("id", "User id is mandatory");
+            }
+        }
+        validateUsers(users);
+        reservePhones(users);
+        for (List<User> chunk : partition(users, MAX_IN_LIST_SIZE)) {
+            List<Long> ids = chunk.stream().map(User::getId).collect(Collectors.toList());
+            Map<Long, User> existing = userRepository.findAll(ids).stream()
+                    .collect(Collectors.toMap(User::getId, user -> user));
+            for (User user : chunk) {
+                User managed = existing.get(user.getId());
+                if (managed == null) {
+                    throw new InvalidDataException("id", "User with id " + user.getId() + " does not exist");
+                }
+                if (user.getVersion() != null && !user.getVersion().equals(managed.getVersion())) {
+                    throw new OptimisticLockingFailureException("User " + user.getId() + " was modified concurrently");
+                }
+                managed.setName(user.getName());
+                managed.setPhone(formatPhone(user.getPhone()));
+                user.setPhone(managed.getPhone());
+            }
+            entityManager.flush();
+            for (User user : chunk) {
+                user.setVersion(existing.get(user.getId()).getVersion());
+            }
+            entityManager.clear();
+        }
+        users.forEach(user -> index(user, UserChange.Type.UPDATED));
+        return users;
     }
 
     @Override
+    @FlushesWriteBehind
     public void remove(Long userId) {
-        userRepository.delete(userId);
+        if (userRepository.deleteById(userId) == 0) {
+            throw new EmptyResultDataAccessException("No user with id " + userId + " exists", 1);
+        }
+        unindex(userId);
+    }
+
+    @Override
+    @FlushesWriteBehind
+    public boolean remove(long userId, Long version) {
+        int removed = version == null
+                ? userRepository.deleteById(userId)
+                : userRepository.deleteByIdAndVersion(userId, version);
+        if (removed == 0) {
+            checkNotModifiedConcurrently(userId, version);
+            return false;
+        }
+        unindex(userId);
+        return true;
     }
 
     @Override
+    @FlushesWriteBehind
+    @Transactional
+    public int removeAll(Collection<Long> userIds) {
+        int removed = 0;
+        for (List<Long> chunk : partition(new ArrayList<>(userIds), MAX_IN_LIST_SIZE)) {
+            // only the users that exist get unindexed and reported to the change feed
+            List<Long> existing = userRepository.findIdsByIdIn(chunk);
+            if (!existing.isEmpty()) {
+                removed += userRepository.deleteByIdIn(existing);
+                existing.forEach(this::unindex);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional
+    public Map<Integer, String> importAll(List<User> users) {
+        Map<Integer, String> errors = new TreeMap<>();
+        Map<String, Integer> positionsByPhone = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            user.setId(null);
+            user.setVersion(null);
+            List<InvalidDataException.FieldError> fieldErrors = UserValidator.checkFields(user);
+            if (!fieldErrors.isEmpty()) {
+                errors.put(i, fieldErrors.get(0).getMessage());
+                continue;
+            }
+            user.setPhone(formatPhone(user.getPhone()));
+            if (!isFieldEmpty(user.getPhone()) && positionsByPhone.putIfAbsent(user.getPhone(), i) != null) {
+                errors.put(i, "User with such phone already exists");
+            }
+        }
+        if (userPhoneIndex != null) {
+            List<Runnable> releases = new ArrayList<>();
+            afterCompletion(() -> releases.forEach(Runnable::run));
+            for (Map.Entry<String, Integer> position : positionsByPhone.entrySet()) {
+                long owner = userPhoneIndex.newReservation();
+                if (userPhoneIndex.reserve(position.getKey(), owner)) {
+                    releases.add(() -> userPhoneIndex.release(position.getKey(), owner));
+                } else {
+                    errors.put(position.getValue(), "User with such phone already exists");
+                }
+            }
+            positionsByPhone.clear();
+        }
+        for (List<String> chunk : partition(new ArrayList<>(positionsByPhone.keySet()), MAX_IN_LIST_SIZE)) {
+            for (User foundUser : userRepository.findByPhoneIn(chunk)) {
+                errors.put(positionsByPhone.get(foundUser.getPhone()), "User with such phone already exists");
+            }
+        }
+        int persisted = 0;
+        for (int i = 0; i < users.size(); i++) {
+            if (errors.containsKey(i)) {
+                continue;
+            }
+            User user = users.get(i);
+            entityManager.persist(user);
+            index(user, UserChange.Type.CREATED);
+            if (++persisted % FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
     public List<User> findAll() {
         return userRepository.findAll();
     }
 
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public UserTableVersion tableVersion() {
+        return userRepository.findTableVersion();
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public List<User> findPage(long afterId, int limit) {
+        return userRepository.findByIdGreaterThanOrderByIdAsc(afterId, new PageRequest(0, limit));
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public List<Object[]> findPage(long afterId, int limit, List<UserField> fields) {
+        return userRepository.findColumnsByIdGreaterThan(fields, afterId, limit);
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public void forEach(Consumer<User> action) {
+        try (Stream<User> users = userRepository.streamAllOrderById()) {
+            users.forEach(user -> {
+                action.accept(user);
+                // keep the persistence context from growing with the table
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    /**
+     * Not transactional: a batched lookup waits for a query on another connection, which it must not do while
+     * holding one. The repository's own read-only transaction still routes an unbatched lookup to the replica.
+     */
     @Override
     public User findById(long id) {
-        return userRepository.findById(id);
+        User buffered = userWriteBehind == null ? null : userWriteBehind.get(id);
+        if (buffered != null) {
+            return buffered;
+        }
+        if (userLookupCoalescer == null) {
+            return loadById(id);
+        }
+        return userLookupCoalescer.findById(id, () -> loadById(id));
     }
 
     @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
     public List<User> findByName(String name) {
-        return userRepository.findByNameStartingWithIgnoreCase(name);
+        return findByName(name, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public List<User> findByName(String name, int offset, int limit) {
+        if (userNameIndex != null) {
+            return userNameIndex.findByPrefix(name, offset, limit);
+        }
+        if (userLookupCoalescer == null) {
+            return loadByName(name, offset, limit);
+        }
+        return userLookupCoalescer.findByName(name, offset, limit, () -> loadByName(name, offset, limit));
+    }
+
+    @Override
+    @FlushesWriteBehind
+    @Transactional(readOnly = true)
+    public List<Object[]> findByName(String name, int offset, int limit, List<UserField> fields) {
+        if (userNameIndex != null) {
+            return UserField.project(userNameIndex.findByPrefix(name, offset, limit), fields);
+        }
+        return userRepository.findColumnsByNameLowerPrefix(fields, escapeLike(User.lowerCase(name)) + "%", offset, limit);
+    }
+
+    private User loadById(long id) {
+        return userIdBatcher == null ? userRepository.findById(id) : userIdBatcher.findById(id);
+    }
+
+    private List<User> loadByName(String name, int offset, int limit) {
+        return userRepository.findByNameLowerPrefix(escapeLike(User.lowerCase(name)) + "%", new OffsetLimitRequest(offset, limit));
     }
 
     @Override
+    @Transactional(readOnly = true)
     public User findByPhone(String phone) {
-        return userRepository.findByPhone(phone);
+        if (userWriteBehind == null) {
+            return userRepository.findByPhone(phone);
+        }
+        User buffered = userWriteBehind.findByPhone(phone);
+        if (buffered != null) {
+            return buffered;
+        }
+        User user = userRepository.findByPhone(phone);
+        // a buffered update already moved the user to another phone
+        return user == null || userWriteBehind.isBuffered(user.getId()) ? null : user;
+    }
+
+    /**
+     * Acknowledges the update once {@link UserWriteBehind} has journaled it. Indexes and the change feed
+     * follow right away, the database with the next flush.
+     */
+    private User updateBehind(User user) {
+        User updated = userWriteBehind.update(user, userRepository::findById);
+        if (updated == null) {
+            return null;
+        }
+        index(updated, UserChange.Type.UPDATED);
+        return updated;
+    }
+
+    /**
+     * Called when a conditional statement touched no rows: tells a missing user apart from a stale version.
+     */
+    private void checkNotModifiedConcurrently(long userId, Long version) {
+        if (version != null && userRepository.exists(userId)) {
+            throw new OptimisticLockingFailureException("User " + userId + " was modified concurrently");
+        }
+    }
+
+    /**
+     * Claims the phone in the phone index for the given user, or for a new reservation when there is no id yet.
+     * Returns the owner to release the claim with once the write is done.
+     */
+    private long reservePhone(String phone, Long userId) throws InvalidDataException {
+        if (userPhoneIndex == null || isFieldEmpty(phone)) {
+            return 0;
+        }
+        long owner = userId == null ? userPhoneIndex.newReservation() : userId;
+        if (!userPhoneIndex.reserve(phone, owner)) {
+            throw new InvalidDataException("phone", "User with such phone already exists");
+        }
+        return owner;
+    }
+
+    private void releasePhone(String phone, long owner) {
+        if (userPhoneIndex != null && !isFieldEmpty(phone)) {
+            userPhoneIndex.release(phone, owner);
+        }
+    }
+
+    private void index(User user, UserChange.Type change) {
+        forgetLookups(user.getId());
+        if (userNameIndex != null || userPhoneIndex != null || userChangeFeed != null) {
+            User copy = User.copyOf(user);
+            afterCommit(() -> {
+                if (userNameIndex != null) {
+                    userNameIndex.put(copy);
+                }
+                if (userPhoneIndex != null) {
+                    userPhoneIndex.put(copy);
+                }
+                if (userChangeFeed != null) {
+                    userChangeFeed.publish(change, copy.getId(), copy);
+                }
+            });
+        }
+    }
+
+    private void unindex(long userId) {
+        forgetLookups(userId);
+        if (userNameIndex != null || userPhoneIndex != null || userChangeFeed != null) {
+            afterCommit(() -> {
+                if (userNameIndex != null) {
+                    userNameIndex.remove(userId);
+                }
+                if (userPhoneIndex != null) {
+                    userPhoneIndex.remove(userId);
+                }
+                if (userChangeFeed != null) {
+                    userChangeFeed.publish(UserChange.Type.DELETED, userId, null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes later reads of the user start a new query. Repeated after the commit: in a transaction, a read that
+     * started in between would otherwise lead a flight over the old row that reads after the commit still join.
+     */
+    private void forgetLookups(long userId) {
+        if (userLookupCoalescer != null) {
+            userLookupCoalescer.changed(userId);
+            afterCommit(() -> userLookupCoalescer.changed(userId));
+        }
+    }
+
+    /**
+     * Claims the phones of a batch in the phone index. The claims are released once the transaction has
+     * completed, after the committed users confirmed theirs, and also when a later claim fails.
+     */
+    private void reservePhones(List<User> users) throws InvalidDataException {
+        if (userPhoneIndex == null) {
+            return;
+        }
+        List<Runnable> releases = new ArrayList<>();
+        afterCompletion(() -> releases.forEach(Runnable::run));
+        for (User user : users) {
+            String phone = formatPhone(user.getPhone());
+            long owner = reservePhone(phone, user.getId());
+            releases.add(() -> releasePhone(phone, owner));
+        }
+    }
+
+    private static void afterCompletion(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     private String formatPhone(String phone) {
@@ -59,17 +513,49 @@ public class UserServiceImpl implements UserService {
     }
 
     private void validateUser(User user) throws InvalidDataException {
-        if (isFieldEmpty(user.getName())) {
-            throw new InvalidDataException("User name is mandatory");
-        }
-        if (!isFieldEmpty(user.getPhone())) {
+        UserValidator.validateFields(user);
+        // with the phone index uniqueness is settled by reservePhone instead
+        if (userPhoneIndex == null && !isFieldEmpty(user.getPhone())) {
             User foundUser = findByPhone(user.getPhone().trim());
             if (foundUser != null && !foundUser.getId().equals(user.getId())) {
-                throw new InvalidDataException("User with such phone already exists");
+                throw new InvalidDataException("phone", "User with such phone already exists");
             }
         }
     }
 
+    private void validateUsers(List<User> users) throws InvalidDataException {
+        UserValidator.validateFields(users);
+        Map<String, Long> ownersByPhone = new HashMap<>();
+        for (User user : users) {
+            if (!isFieldEmpty(user.getPhone())) {
+                String phone = user.getPhone().trim();
+                if (ownersByPhone.containsKey(phone)) {
+                    throw new InvalidDataException("phone", "User with such phone already exists");
+                }
+                ownersByPhone.put(phone, user.getId());
+            }
+        }
+        // with the phone index uniqueness is settled by reservePhones instead
+        if (userPhoneIndex != null) {
+            return;
+        }
+        for (List<String> chunk : partition(new ArrayList<>(ownersByPhone.keySet()), MAX_IN_LIST_SIZE)) {
+            for (User foundUser : userRepository.findByPhoneIn(chunk)) {
+                if (!foundUser.getId().equals(ownersByPhone.get(foundUser.getPhone()))) {
+                    throw new InvalidDataException("phone", "User with such phone already exists");
+                }
+            }
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> items, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += size) {
+            chunks.add(items.subList(i, Math.min(i + size, items.size())));
+        }
+        return chunks;
+    }
+
     private boolean isFieldEmpty(String value) {
         return value == null || value.trim().isEmpty();
     }
@@ -0,0 +1,67 @@
+package demo.simplerest.services;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.InvalidDataException.FieldError;
+import demo.simplerest.entities.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks of a user that need no stored data, shared by every {@link UserService}. They collect all field errors
+ * at once and run before any lookup, so bad input is turned away without touching the store.
+ */
+public final class UserValidator {
+    // the width of the name and phone columns
+    static final int MAX_LENGTH = 255;
+
+    private UserValidator() {
+    }
+
+    public static List<FieldError> checkFields(User user) {
+        return checkFields(user, "");
+    }
+
+    public static void validateFields(User user) throws InvalidDataException {
+        List<FieldError> errors = checkFields(user);
+        if (!errors.isEmpty()) {
+            throw new InvalidDataException(errors);
+        }
+    }
+
+    /**
+     * Checks a whole batch, naming the fields of each user by its position, e.g. {@code [3].name}.
+     */
+    public static void validateFields(List<User> users) throws InvalidDataException {
+        List<FieldError> errors = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            errors.addAll(checkFields(users.get(i), "[" + i + "]."));
+        }
+        if (!errors.isEmpty()) {
+            throw new InvalidDataException(errors);
+        }
+    }
+
+    private static List<FieldError> checkFields(User user, String prefix) {
+        List<FieldError> errors = Collections.emptyList();
+        String name = user.getName();
+        if (name == null || name.trim().isEmpty()) {
+            errors = add(errors, new FieldError(prefix + "name", "User name is mandatory"));
+        } else if (name.length() > MAX_LENGTH) {
+            errors = add(errors, new FieldError(prefix + "name", "User name is longer than " + MAX_LENGTH));
+        }
+        String phone = user.getPhone();
+        if (phone != null && phone.trim().length() > MAX_LENGTH) {
+            errors = add(errors, new FieldError(prefix + "phone", "User phone is longer than " + MAX_LENGTH));
+        }
+        return errors;
+    }
+
+    // valid users, the common case, allocate nothing
+    private static List<FieldError> add(List<FieldError> errors, FieldError error) {
+        List<FieldError> result = errors.isEmpty() ? new ArrayList<>(2) : errors;
+        result.add(error);
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package demo.simplerest.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.simplerest.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the read paths a number of times on several threads once the context is refreshed. The embedded
+ * server only starts accepting connections after refresh listeners return, so the first real requests meet
+ * JIT-compiled code, an open connection pool, parsed query plans and a warm user cache.
+ * <p>
+ * The loops go to the store directly, a cached lookup would only exercise the cache; the cache is filled
+ * with one pass over the sample afterwards. The table version is a full aggregate, so it runs once per thread.
+ */
+@Component
+@ConditionalOnProperty(name = "users.warm-up.enabled")
+public class UserWarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(UserWarmUp.class);
+    private static final int SAMPLE_SIZE = 100;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    @Qualifier("userStore")
+    private UserService userStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${users.warm-up.iterations:2000}")
+    private int iterations;
+
+    @Value("${users.warm-up.threads:4}")
+    private int threads;
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUp() throws InterruptedException {
+        long started = System.nanoTime();
+        List<User> sample = userStore.findPage(0, SAMPLE_SIZE);
+        if (sample.isEmpty()) {
+            sample = Collections.singletonList(new User());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                List<User> users = sample;
+                runs.add(executor.submit(() -> exercise(users)));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+            for (User user : sample) {
+                if (user.getId() != null) {
+                    userService.findById(user.getId());
+                }
+            }
+        } catch (ExecutionException e) {
+            // a failed warm-up only costs latency, it must not keep the service from starting
+            logger.warn("User warm-up failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("User warm-up took {} ms", (System.nanoTime() - started) / 1000000);
+    }
+
+    private void exercise(List<User> sample) {
+        userStore.tableVersion();
+        for (int i = 0; i < iterations; i++) {
+            User user = sample.get(i % sample.size());
+            if (user.getId() != null) {
+                userStore.findById(user.getId());
+            }
+            if (user.getName() != null) {
+                userStore.findByName(user.getName().substring(0, Math.min(3, user.getName().length())), 0, 20);
+            }
+            if (user.getPhone() != null) {
+                userStore.findByPhone(user.getPhone());
+            }
+            userStore.findPage(i % SAMPLE_SIZE, 20);
+            try {
+                objectMapper.writeValueAsBytes(user);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package demo.simplerest.services;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.storage.UserJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+
+/**
+ * Write-behind buffer for single-user updates, enabled with {@code users.write-behind.enabled}.
+ * <p>
+ * An update is acknowledged once it is in the {@link UserJournal} and the buffer, where it replaces any earlier
+ * update of the same user. Every {@code users.write-behind.flush-interval-ms} the buffer is written to the
+ * database in one transaction of JDBC batches, with the acknowledged versions. Guarantees:
+ * <ul>
+ * <li>durability: an acknowledged update survives a crash of the process, and with
+ * {@code users.write-behind.fsync} also of the machine; the journal is replayed into the buffer at startup</li>
+ * <li>ordering: the updates of one user are acknowledged, versioned and applied in one order, and only the
+ * latest is written; a flush takes everything acknowledged before it, so the database only moves from one
+ * flushed state to the next and never holds a later update without the updates acknowledged before it</li>
+ * <li>a flush writes a row only while its version is still the one the buffered updates were based on; an update
+ * whose user was deleted or written by a synchronous write since is a conflict, and it is logged and dropped like
+ * one the database rejects, such as a phone taken by a concurrent create; any other failure keeps the buffer and
+ * the journal for the next flush</li>
+ * </ul>
+ * Updates replayed from the journal do not know the version they were based on, they are written unless the row
+ * already has their version or a later one, which also skips those a flush wrote just before the crash.
+ */
+@Component
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.write-behind.enabled")
+public class UserWriteBehind implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(UserWriteBehind.class);
+    private static final int BATCH_SIZE = 50;
+    private static final int LOCK_STRIPES = 64;
+    private static final String UPDATE_SQL = "update user set name = ?, name_lower = ?, phone = ?, version = ? where id = ?";
+
+    private final UserJournal journal;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long flushIntervalMillis;
+    private final int maxPending;
+    private final ConcurrentMap<Long, Buffered> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> pendingPhones = new ConcurrentHashMap<>();
+    private final Object[] userLocks = new Object[LOCK_STRIPES];
+    // appends hold the read lock, so a flush sees every update whose journal record precedes its rotation
+    private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Counter flushed;
+    private volatile Counter dropped;
+
+    public UserWriteBehind(DataSource dataSource, PlatformTransactionManager transactionManager,
+                           @Value("${users.write-behind.directory:journal}") String directory,
+                           @Value("${users.write-behind.fsync:true}") boolean fsync,
+                           @Value("${users.write-behind.flush-interval-ms:200}") long flushIntervalMillis,
+                           @Value("${users.write-behind.max-pending:10000}") int maxPending) throws IOException {
+        this.journal = new UserJournal(Paths.get(directory), fsync);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // never part of the caller's transaction, whose rollback would undo a flush the buffer already forgot
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxPending = maxPending;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new Object();
+        }
+        journal.forEachRecovered(user -> buffer(user, null));
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("user-write-behind-");
+        scheduler.initialize();
+    }
+
+    /**
+     * Waits for the context, the schema only exists once Hibernate has created it. Updates recovered from the
+     * journal are written before the periodic flushes start.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            if (!pending.isEmpty()) {
+                log.info("Recovered {} buffered user updates from the journal", pending.size());
+            }
+            flush();
+            scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        scheduler.shutdown();
+        flush();
+        journal.close();
+    }
+
+    /**
+     * Buffers the update of an existing user. The current state is the buffered one, or {@code loader}'s
+     * when there is none. Returns {@code null} when the user does not exist, otherwise the user with its new version.
+     */
+    public User update(User user, LongFunction<User> loader) {
+        if (pending.size() >= maxPending) {
+            // back pressure instead of an unbounded buffer
+            flush();
+        }
+        long id = user.getId();
+        synchronized (userLocks[(int) (id & (LOCK_STRIPES - 1))]) {
+            Buffered buffered = pending.get(id);
+            User current = buffered == null ? loader.apply(id) : buffered.user;
+            if (current == null) {
+                return null;
+            }
+            if (user.getVersion() != null && !user.getVersion().equals(current.getVersion())) {
+                throw new OptimisticLockingFailureException("User " + id + " was modified concurrently");
+            }
+            User updated = User.copyOf(user);
+            updated.setVersion(current.getVersion() + 1);
+            rotationLock.readLock().lock();
+            try {
+                journal.append(updated);
+                buffer(updated, current.getVersion());
+            } finally {
+                rotationLock.readLock().unlock();
+            }
+            user.setVersion(updated.getVersion());
+            return user;
+        }
+    }
+
+    /**
+     * The latest buffered state of the user, {@code null} if it has no update waiting.
+     */
+    public User get(long id) {
+        Buffered buffered = pending.get(id);
+        return buffered == null ? null : User.copyOf(buffered.user);
+    }
+
+    /**
+     * The buffered user that now has the phone, {@code null} if none.
+     */
+    public User findByPhone(String phone) {
+        Long id = pendingPhones.get(phone);
+        Buffered buffered = id == null ? null : pending.get(id);
+        return buffered != null && phone.equals(buffered.user.getPhone()) ? User.copyOf(buffered.user) : null;
+    }
+
+    public boolean isBuffered(long id) {
+        return pending.containsKey(id);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes everything buffered so far. Called periodically, and before any write or query the buffer
+     * cannot answer, so that it runs against the state the clients were acknowledged.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long segment;
+            List<Buffered> batch;
+            rotationLock.writeLock().lock();
+            try {
+                segment = journal.rotate();
+                batch = new ArrayList<>(pending.values());
+            } finally {
+                rotationLock.writeLock().unlock();
+            }
+            Set<Buffered> rejected;
+            try {
+                rejected = write(batch);
+            } catch (RuntimeException e) {
+                log.warn("Flushing {} buffered user updates failed, retrying with the next flush", batch.size(), e);
+                return;
+            }
+            count(flushed, batch.size() - rejected.size());
+            count(dropped, rejected.size());
+            for (Buffered written : batch) {
+                long id = written.user.getId();
+                if (pending.remove(id, written)) {
+                    if (written.user.getPhone() != null) {
+                        pendingPhones.remove(written.user.getPhone(), id);
+                    }
+                } else if (!rejected.contains(written)) {
+                    // updated again during the write, the newer update now builds on the flushed version
+                    pending.computeIfPresent(id, (key, newer) -> new Buffered(newer.user, written.user.getVersion()));
+                }
+            }
+            journal.deleteBefore(segment);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.write-behind.pending", pending, ConcurrentMap::size)
+                .description("User updates acknowledged but not yet in the database")
+                .register(registry);
+        flushed = Counter.builder("users.write-behind.flushed")
+                .description("Buffered user updates written to the database")
+                .register(registry);
+        dropped = Counter.builder("users.write-behind.dropped")
+                .description("Buffered user updates the database rejected or a later write conflicted with")
+                .register(registry);
+    }
+
+    /**
+     * {@code baseVersion} is the version of the stored user the update was made against, {@code null} when it is
+     * not known; a user already buffered keeps the base of its first buffered update.
+     */
+    private void buffer(User user, Long baseVersion) {
+        pending.compute(user.getId(), (id, previous) -> {
+            if (previous != null && previous.user.getPhone() != null) {
+                pendingPhones.remove(previous.user.getPhone(), id);
+            }
+            if (user.getPhone() != null) {
+                pendingPhones.put(user.getPhone(), id);
+            }
+            return new Buffered(user, previous == null ? baseVersion : previous.baseVersion);
+        });
+    }
+
+    /**
+     * One transaction for the whole buffer. When the database rejects it, the users are written one
+     * transaction each, so only the rejected ones are lost. Returns the updates that were not written.
+     */
+    private Set<Buffered> write(List<Buffered> batch) {
+        Set<Buffered> rejected = new HashSet<>();
+        try {
+            rejected.addAll(transactionTemplate.execute(status -> {
+                List<Buffered> conflicts = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i += BATCH_SIZE) {
+                    conflicts.addAll(writeRows(batch.subList(i, Math.min(i + BATCH_SIZE, batch.size()))));
+                }
+                return conflicts;
+            }));
+        } catch (DataIntegrityViolationException e) {
+            for (Buffered buffered : batch) {
+                try {
+                    rejected.addAll(transactionTemplate.execute(status -> writeRows(Collections.singletonList(buffered))));
+                } catch (DataIntegrityViolationException violation) {
+                    log.warn("Dropping buffered update of user {} rejected by the database: {}", buffered.user.getId(),
+                            violation.getMessage());
+                    rejected.add(buffered);
+                }
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Returns the conflicts, the updates whose row was not at the expected version.
+     */
+    private List<Buffered> writeRows(List<Buffered> entries) {
+        List<Buffered> based = new ArrayList<>(entries.size());
+        List<Buffered> recovered = new ArrayList<>();
+        for (Buffered buffered : entries) {
+            if (buffered.baseVersion == null) {
+                recovered.add(buffered);
+            } else {
+                based.add(buffered);
+            }
+        }
+        List<Buffered> conflicts = new ArrayList<>();
+        writeRows(UPDATE_SQL + " and version = ?", based, conflicts);
+        writeRows(UPDATE_SQL + " and version < ?", recovered, conflicts);
+        return conflicts;
+    }
+
+    private void writeRows(String sql, List<Buffered> entries, List<Buffered> conflicts) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(entries.size());
+        for (Buffered buffered : entries) {
+            User user = buffered.user;
+            rows.add(new Object[]{user.getName(), User.lowerCase(user.getName()), user.getPhone(), user.getVersion(),
+                    user.getId(), buffered.baseVersion == null ? user.getVersion() : buffered.baseVersion});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(sql, rows);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                Buffered conflict = entries.get(i);
+                log.warn("Dropping buffered update of user {} to version {}, the user was deleted or written since",
+                        conflict.user.getId(), conflict.user.getVersion());
+                conflicts.add(conflict);
+            }
+        }
+    }
+
+    private static void count(Counter counter, int amount) {
+        if (counter != null) {
+            counter.increment(amount);
+        }
+    }
+
+    /**
+     * A buffered update and the stored version it was made against.
+     */
+    private static class Buffered {
+        final User user;
+        final Long baseVersion;
+
+        Buffered(User user, Long baseVersion) {
+            this.user = user;
+            this.baseVersion = baseVersion;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package demo.simplerest.services;
+
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Flushes the {@link UserWriteBehind} buffer before every {@link FlushesWriteBehind} method. It runs outside the
+ * method's transaction: the flush writes on a connection of its own, and waiting for one while already holding
+ * another would deadlock once every pooled connection belongs to such a caller. It is ordered right after Spring's
+ * {@code ExposeInvocationInterceptor}, which advice needs in front of it.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@Conditional(JpaStoreCondition.class)
+@ConditionalOnProperty(name = "users.write-behind.enabled")
+public class WriteBehindFlushAspect {
+    private final UserWriteBehind userWriteBehind;
+
+    public WriteBehindFlushAspect(UserWriteBehind userWriteBehind) {
+        this.userWriteBehind = userWriteBehind;
+    }
+
+    @Before("@annotation(demo.simplerest.services.FlushesWriteBehind)")
+    public void flush() {
+        userWriteBehind.flush();
+    }
+}
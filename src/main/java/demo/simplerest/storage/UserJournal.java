@@ -0,0 +1,281 @@
+package demo.simplerest.storage;
+
+import demo.simplerest.entities.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Redo journal of buffered user updates, written before an update is acknowledged.
+ * <p>
+ * Records are {@code [length][crc32][payload]} like in {@link UserLog}, each carrying the whole user, and go to
+ * numbered segments {@code journal-<n>.log}. A flush {@link #rotate() rotates} to a new segment before it reads the
+ * buffer, and once the database has committed it {@link #deleteBefore deletes} the older segments, whose records
+ * are then all either written or superseded. With {@code fsync} an append returns only after the record reached
+ * the disk; concurrent appends share one {@code force}. On open every segment is replayed in order and a torn
+ * last record, left by a crash in the middle of an append, is cut off.
+ */
+public class UserJournal implements Closeable {
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final boolean fsync;
+    private final Object syncLock = new Object();
+    private final List<User> recovered = new ArrayList<>();
+
+    private FileChannel segment;
+    private long segmentNumber;
+    private long position;
+    private long syncedSegment;
+    private long syncedPosition;
+
+    public UserJournal(Path directory, boolean fsync) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.fsync = fsync;
+        List<Long> segments = segments();
+        for (long number : segments) {
+            replay(number);
+        }
+        segmentNumber = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        segment = FileChannel.open(pathOf(segmentNumber), CREATE_NEW, WRITE);
+    }
+
+    /**
+     * The users found in the segments at open, oldest first, so later records of a user supersede earlier ones.
+     */
+    public void forEachRecovered(Consumer<User> action) {
+        recovered.forEach(action);
+    }
+
+    public void append(User user) {
+        ByteBuffer record = encode(user);
+        long appendedTo;
+        long appendedSegment;
+        synchronized (this) {
+            try {
+                writeFully(segment, record, position);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position += record.capacity();
+            appendedTo = position;
+            appendedSegment = segmentNumber;
+        }
+        if (fsync) {
+            sync(appendedSegment, appendedTo);
+        }
+    }
+
+    /**
+     * Starts a new segment for the appends that follow and returns its number. The finished segment is
+     * forced first, so a record is never only in the page cache once its segment is no longer current.
+     */
+    public synchronized long rotate() {
+        try {
+            segment.force(false);
+            segment.close();
+            segmentNumber++;
+            segment = FileChannel.open(pathOf(segmentNumber), CREATE_NEW, WRITE);
+            position = 0;
+            return segmentNumber;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops the segments before {@code number}, once their records are in the database.
+     */
+    public void deleteBefore(long number) {
+        try {
+            for (long existing : segments()) {
+                if (existing < number) {
+                    Files.deleteIfExists(pathOf(existing));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long currentSegment() {
+        return segmentNumber;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segment.force(false);
+        segment.close();
+    }
+
+    /**
+     * Group commit: whoever gets the lock forces everything appended so far, and the appends it covered
+     * return without another {@code force}.
+     */
+    private void sync(long appendedSegment, long appendedTo) {
+        synchronized (syncLock) {
+            if (syncedSegment > appendedSegment || (syncedSegment == appendedSegment && syncedPosition >= appendedTo)) {
+                return;
+            }
+            FileChannel channel;
+            long number;
+            long end;
+            synchronized (this) {
+                // a rotation already forced the segment the record went to
+                if (segmentNumber != appendedSegment) {
+                    return;
+                }
+                channel = segment;
+                number = segmentNumber;
+                end = position;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            syncedSegment = number;
+            syncedPosition = end;
+        }
+    }
+
+    private void replay(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(number), READ, WRITE)) {
+            long size = channel.size();
+            long length = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (length + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, length);
+                int payloadLength = header.getInt(0);
+                if (payloadLength <= 0 || length + RECORD_HEADER_SIZE + payloadLength > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                readFully(channel, payload, length + RECORD_HEADER_SIZE);
+                payload.flip();
+                if (checksum(payload) != header.getInt(4)) {
+                    // only the last record can be torn, a bad one with records after it is damage to keep, not cut
+                    if (length + RECORD_HEADER_SIZE + payloadLength < size) {
+                        throw new IOException("Corrupt user journal record at " + length + " of " + pathOf(number));
+                    }
+                    break;
+                }
+                recovered.add(decode(payload));
+                length += RECORD_HEADER_SIZE + payloadLength;
+            }
+            // whatever follows the last complete record was torn by the crash
+            if (length < size) {
+                channel.truncate(length);
+                channel.force(true);
+            }
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path pathOf(long number) {
+        return directory.resolve(PREFIX + number + SUFFIX);
+    }
+
+    private static ByteBuffer encode(User user) {
+        byte[] name = bytesOf(user.getName());
+        byte[] phone = bytesOf(user.getPhone());
+        ByteBuffer payload = ByteBuffer.allocate(8 + 8 + 4 + length(name) + 4 + length(phone));
+        payload.putLong(user.getId()).putLong(user.getVersion());
+        putBytes(payload, name);
+        putBytes(payload, phone);
+        payload.flip();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining());
+        record.putInt(payload.remaining()).putInt(checksum(payload)).put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static User decode(ByteBuffer payload) {
+        User user = new User();
+        user.setId(payload.getLong());
+        user.setVersion(payload.getLong());
+        user.setName(getString(payload));
+        user.setPhone(getString(payload));
+        return user;
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of user journal at " + position);
+            }
+            position += read;
+        }
+    }
+}
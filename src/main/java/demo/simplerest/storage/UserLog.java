@@ -0,0 +1,468 @@
+package demo.simplerest.storage;
+
+import demo.simplerest.entities.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only log of user records with a memory-mapped id index kept off the heap.
+ * <p>
+ * {@code users.log} holds {@code [length][crc32][payload]} records, a put carrying the whole user and a delete only
+ * its id. {@code users.idx} maps every id to the offset of its latest record (plus one, so zero means absent) behind
+ * a small header with the log length and statistics it is valid for. The header is only written on a clean close,
+ * so after a crash the index is rebuilt from the log and a torn last record is cut off.
+ * Once more than half of the log is dead records it is compacted by copying the live ones into a fresh file,
+ * followed by a delete record of the highest id ever used when that user is gone, so ids are never reused.
+ */
+public class UserLog implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INDEX_HEADER_SIZE = 40;
+    private static final int INITIAL_SLOTS = 1 << 16;
+    private static final long DIRTY = -1;
+
+    private final Path logPath;
+    private final Path compactPath;
+    private final Path indexPath;
+    private final boolean fsync;
+    private final long compactThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel log;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private long logLength;
+    private long maxId;
+    private long liveBytes;
+    private long liveCount;
+    private long versionSum;
+
+    public UserLog(Path directory, boolean fsync, long compactThreshold) throws IOException {
+        Files.createDirectories(directory);
+        this.logPath = directory.resolve("users.log");
+        this.compactPath = directory.resolve("users.log.compact");
+        this.indexPath = directory.resolve("users.idx");
+        this.fsync = fsync;
+        this.compactThreshold = compactThreshold;
+
+        Files.deleteIfExists(compactPath);
+        log = FileChannel.open(logPath, CREATE, READ, WRITE);
+        indexChannel = FileChannel.open(indexPath, CREATE, READ, WRITE);
+        mapIndex(Math.max(indexChannel.size(), INDEX_HEADER_SIZE + 8L * INITIAL_SLOTS));
+        if (index.getLong(0) == log.size()) {
+            logLength = index.getLong(0);
+            maxId = index.getLong(8);
+            liveBytes = index.getLong(16);
+            liveCount = index.getLong(24);
+            versionSum = index.getLong(32);
+        } else {
+            recover();
+        }
+        index.putLong(0, DIRTY);
+        index.force();
+    }
+
+    public User get(long id) {
+        lock.readLock().lock();
+        try {
+            long offset = offsetOf(id);
+            return offset < 0 ? null : decode(read(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the users with ids above {@code afterId} in id order until the action returns {@code false}.
+     * The lock is taken per user, so a long walk does not hold up writers.
+     */
+    public void forEachAfter(long afterId, Predicate<User> action) {
+        for (long id = afterId + 1; id <= maxId(); id++) {
+            User user = get(id);
+            if (user != null && !action.test(user)) {
+                return;
+            }
+        }
+    }
+
+    public void forEach(Consumer<User> action) {
+        forEachAfter(0, user -> {
+            action.accept(user);
+            return true;
+        });
+    }
+
+    public long nextId() {
+        lock.writeLock().lock();
+        try {
+            return ++maxId;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(User user) {
+        ByteBuffer record = encode(user);
+        lock.writeLock().lock();
+        try {
+            long offset = append(record);
+            release(offsetOf(user.getId()));
+            setOffset(user.getId(), offset);
+            liveBytes += record.capacity();
+            liveCount++;
+            versionSum += user.getVersion();
+            maxId = Math.max(maxId, user.getId());
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean delete(long id) {
+        lock.writeLock().lock();
+        try {
+            long previous = offsetOf(id);
+            if (previous < 0) {
+                return false;
+            }
+            append(encodeDelete(id));
+            release(previous);
+            setOffset(id, -1);
+            compactIfNeeded();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long maxId() {
+        lock.readLock().lock();
+        try {
+            return maxId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long versionSum() {
+        lock.readLock().lock();
+        try {
+            return versionSum;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long logLength() {
+        lock.readLock().lock();
+        try {
+            return logLength;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            try (FileChannel compacted = FileChannel.open(compactPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                long position = 0;
+                long lastLiveId = 0;
+                for (long id = 1; id <= maxId; id++) {
+                    long offset = offsetOf(id);
+                    if (offset < 0) {
+                        continue;
+                    }
+                    ByteBuffer record = readRaw(offset);
+                    writeFully(compacted, record, position);
+                    setOffset(id, position);
+                    position += record.capacity();
+                    lastLiveId = id;
+                }
+                if (maxId > lastLiveId) {
+                    // keeps the high-water mark for recover(), so ids of deleted users are never handed out again
+                    ByteBuffer tombstone = encodeDelete(maxId);
+                    writeFully(compacted, tombstone, position);
+                    position += tombstone.capacity();
+                }
+                compacted.force(true);
+                logLength = position;
+            }
+            log.close();
+            Files.move(compactPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log = FileChannel.open(logPath, READ, WRITE);
+        } catch (IOException e) {
+            reopenAfterFailedCompaction();
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            log.force(true);
+            index.putLong(8, maxId);
+            index.putLong(16, liveBytes);
+            index.putLong(24, liveCount);
+            index.putLong(32, versionSum);
+            index.putLong(0, logLength);
+            index.force();
+            log.close();
+            indexChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The index may already point into the abandoned copy, so it is rebuilt from whichever log is in place.
+     */
+    private void reopenAfterFailedCompaction() {
+        try {
+            Files.deleteIfExists(compactPath);
+            if (!log.isOpen()) {
+                log = FileChannel.open(logPath, READ, WRITE);
+            }
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void recover() throws IOException {
+        for (int position = INDEX_HEADER_SIZE; position < index.capacity(); position += 8) {
+            index.putLong(position, 0);
+        }
+        logLength = 0;
+        maxId = 0;
+        liveBytes = 0;
+        liveCount = 0;
+        versionSum = 0;
+        long size = log.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (logLength + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(log, header, logLength);
+            int length = header.getInt(0);
+            if (length <= 0 || logLength + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(log, payload, logLength + RECORD_HEADER_SIZE);
+            payload.flip();
+            if (checksum(payload) != header.getInt(4)) {
+                break;
+            }
+            long id = payload.getLong(1);
+            release(offsetOf(id));
+            if (payload.get(0) == PUT) {
+                setOffset(id, logLength);
+                liveBytes += RECORD_HEADER_SIZE + length;
+                liveCount++;
+                versionSum += payload.getLong(9);
+            } else {
+                setOffset(id, -1);
+            }
+            maxId = Math.max(maxId, id);
+            logLength += RECORD_HEADER_SIZE + length;
+        }
+        // whatever follows the last complete record was torn by the crash
+        log.truncate(logLength);
+        log.force(true);
+    }
+
+    private long append(ByteBuffer record) throws IOException {
+        long offset = logLength;
+        writeFully(log, record, offset);
+        if (fsync) {
+            log.force(false);
+        }
+        logLength += record.capacity();
+        return offset;
+    }
+
+    /**
+     * Accounts for a record that is being superseded.
+     */
+    private void release(long offset) throws IOException {
+        if (offset < 0) {
+            return;
+        }
+        ByteBuffer record = readRaw(offset);
+        liveBytes -= record.capacity();
+        liveCount--;
+        versionSum -= record.getLong(RECORD_HEADER_SIZE + 9);
+    }
+
+    private void compactIfNeeded() {
+        long deadBytes = logLength - liveBytes;
+        if (deadBytes > compactThreshold && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    private long offsetOf(long id) {
+        long position = slotOf(id);
+        if (id < 1 || position + 8 > index.capacity()) {
+            return -1;
+        }
+        return index.getLong((int) position) - 1;
+    }
+
+    private void setOffset(long id, long offset) throws IOException {
+        long position = slotOf(id);
+        if (position + 8 > index.capacity()) {
+            mapIndex(Math.max(position + 8, 2L * index.capacity()));
+        }
+        index.putLong((int) position, offset + 1);
+    }
+
+    private static long slotOf(long id) {
+        return INDEX_HEADER_SIZE + 8 * (id - 1);
+    }
+
+    private void mapIndex(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("User id index is full");
+        }
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private ByteBuffer read(long offset) {
+        try {
+            ByteBuffer record = readRaw(offset);
+            record.position(RECORD_HEADER_SIZE);
+            return record.slice();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer readRaw(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(log, header, offset);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + header.getInt(0));
+        readFully(log, record, offset);
+        record.clear();
+        return record;
+    }
+
+    private static ByteBuffer encode(User user) {
+        byte[] name = bytesOf(user.getName());
+        byte[] phone = bytesOf(user.getPhone());
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 8 + 4 + length(name) + 4 + length(phone));
+        payload.put(PUT).putLong(user.getId()).putLong(user.getVersion());
+        putBytes(payload, name);
+        putBytes(payload, phone);
+        return frame(payload);
+    }
+
+    private static ByteBuffer encodeDelete(long id) {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8);
+        payload.put(DELETE).putLong(id);
+        return frame(payload);
+    }
+
+    private static User decode(ByteBuffer payload) {
+        User user = new User();
+        payload.get();
+        user.setId(payload.getLong());
+        user.setVersion(payload.getLong());
+        user.setName(getString(payload));
+        user.setPhone(getString(payload));
+        return user;
+    }
+
+    private static ByteBuffer frame(ByteBuffer payload) {
+        payload.flip();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining());
+        record.putInt(payload.remaining()).putInt(checksum(payload)).put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of user log at " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package demo.simplerest.storage;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserTableVersion;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One partition of the users table, reached with plain JDBC. Holds only the users whose id routes to it,
+ * so every query here is local to the shard; combining shards is up to the caller.
+ */
+public class UserShard {
+    private static final String COLUMNS = "id, name, phone, version";
+    private static final RowMapper<User> USER_MAPPER = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getLong("id"));
+        user.setName(rs.getString("name"));
+        user.setPhone(rs.getString("phone"));
+        user.setVersion(rs.getLong("version"));
+        return user;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public UserShard(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    public void createSchema() {
+        jdbcTemplate.execute("create table if not exists users (id bigint primary key, name varchar(255) not null, " +
+                "name_lower varchar(255) not null, phone varchar(255) unique, version bigint not null)");
+        jdbcTemplate.execute("create index if not exists idx_users_name_lower on users (name_lower, id)");
+    }
+
+    public User findById(long id) {
+        List<User> users = jdbcTemplate.query("select " + COLUMNS + " from users where id = ?", USER_MAPPER, id);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    public List<User> findByIdIn(Collection<Long> ids) {
+        return namedJdbcTemplate.query("select " + COLUMNS + " from users where id in (:ids)",
+                new MapSqlParameterSource("ids", ids), USER_MAPPER);
+    }
+
+    public List<User> findByPhoneIn(Collection<String> phones) {
+        return namedJdbcTemplate.query("select " + COLUMNS + " from users where phone in (:phones)",
+                new MapSqlParameterSource("phones", phones), USER_MAPPER);
+    }
+
+    public List<User> findPage(long afterId, int limit) {
+        return jdbcTemplate.query("select " + COLUMNS + " from users where id > ? order by id limit ?",
+                USER_MAPPER, afterId, limit);
+    }
+
+    /**
+     * The first {@code limit} users of this shard in name order, expects an already lower-cased and escaped pattern.
+     */
+    public List<User> findByNameLowerPrefix(String prefix, int limit) {
+        return jdbcTemplate.query("select " + COLUMNS + " from users where name_lower like ? escape '\\' " +
+                "order by name_lower, id limit ?", USER_MAPPER, prefix, limit);
+    }
+
+    public long maxId() {
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from users", Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    public UserTableVersion tableVersion() {
+        return jdbcTemplate.queryForObject("select count(*), max(id), sum(version) from users",
+                (rs, rowNum) -> new UserTableVersion(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+    }
+
+    public void insertAll(List<User> users) {
+        transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(
+                "insert into users (id, name, name_lower, phone, version) values (?, ?, ?, ?, ?)",
+                users, users.size(), (ps, user) -> {
+                    ps.setLong(1, user.getId());
+                    ps.setString(2, user.getName());
+                    ps.setString(3, User.lowerCase(user.getName()));
+                    ps.setString(4, user.getPhone());
+                    ps.setLong(5, user.getVersion());
+                }));
+    }
+
+    /**
+     * Updates the user if it still has the given version, or any version for {@code null}; returns the rows touched.
+     */
+    public int update(User user, Long version) {
+        if (version == null) {
+            return jdbcTemplate.update("update users set name = ?, name_lower = ?, phone = ?, version = version + 1 " +
+                    "where id = ?", user.getName(), User.lowerCase(user.getName()), user.getPhone(), user.getId());
+        }
+        return jdbcTemplate.update("update users set name = ?, name_lower = ?, phone = ?, version = version + 1 " +
+                        "where id = ? and version = ?", user.getName(), User.lowerCase(user.getName()), user.getPhone(),
+                user.getId(), version);
+    }
+
+    /**
+     * Updates all users in one transaction, rolling the shard back if any of them changed in the meantime.
+     */
+    public void updateAll(List<User> users) {
+        transactionTemplate.execute(status -> {
+            for (User user : users) {
+                if (update(user, user.getVersion()) == 0) {
+                    throw new OptimisticLockingFailureException("User " + user.getId() + " was modified concurrently");
+                }
+            }
+            return null;
+        });
+    }
+
+    public int delete(long id, Long version) {
+        return version == null
+                ? jdbcTemplate.update("delete from users where id = ?", id)
+                : jdbcTemplate.update("delete from users where id = ? and version = ?", id, version);
+    }
+
+    /**
+     * Deletes the users in one transaction and returns the ids that existed, locked until the delete commits.
+     */
+    public List<Long> deleteAll(Collection<Long> ids) {
+        return transactionTemplate.execute(status -> {
+            List<Long> existing = namedJdbcTemplate.queryForList("select id from users where id in (:ids) for update",
+                    new MapSqlParameterSource("ids", ids), Long.class);
+            if (!existing.isEmpty()) {
+                namedJdbcTemplate.update("delete from users where id in (:ids)", new MapSqlParameterSource("ids", existing));
+            }
+            return existing;
+        });
+    }
+}
@@ -0,0 +1,12 @@
+-- the users schema for databases Hibernate only validates, see application-production.properties
+create sequence if not exists user_seq start with 1 increment by 50;
+create table if not exists user (
+    id bigint not null,
+    name varchar(255) not null,
+    name_lower varchar(255) not null,
+    phone varchar(255),
+    version bigint,
+    primary key (id),
+    constraint uk_user_phone unique (phone)
+);
+create index if not exists idx_user_name_lower on user (name_lower, id);
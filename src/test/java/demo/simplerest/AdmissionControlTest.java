@@ -0,0 +1,136 @@
+package demo.simplerest;
+
+import demo.simplerest.admission.ConcurrencyLimiter;
+import demo.simplerest.admission.TokenBucket;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"users.admission.enabled=true", "users.admission.rate-per-second=0.1",
+        "users.admission.burst=2", "spring.datasource.url=jdbc:h2:mem:admission;DB_CLOSE_DELAY=-1"})
+@AutoConfigureMockMvc
+public class AdmissionControlTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void shouldRejectWritesOverClientRateButKeepServingReads() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/users").header("X-API-Key", "bursty")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"name\":\"Bursty\",\"phone\":\"820000" + i + "\"}"))
+                    .andExpect(status().isOk());
+        }
+        mockMvc.perform(post("/users").header("X-API-Key", "bursty")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Bursty\",\"phone\":\"8200002\"}"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "10"));
+
+        mockMvc.perform(post("/users").header("X-API-Key", "calm")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Calm\",\"phone\":\"8200003\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/users/name/bursty").header("X-API-Key", "bursty"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void shouldRefillBucketOverTime() {
+        TokenBucket bucket = new TokenBucket(2, 2, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND / 2, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(SECOND / 2));
+        // never refills past the burst
+        assertEquals(0, bucket.tryAcquire(10 * SECOND));
+        assertEquals(0, bucket.tryAcquire(10 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND) > 0);
+    }
+
+    @Test
+    public void shouldShedWritesOnceQueueIsFull() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 0, 20, 100, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldAdmitQueuedWriteWhenSlotIsReleased() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 20, 100, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            limiter.release();
+        });
+        releaser.start();
+        assertTrue(limiter.tryAcquire(5, TimeUnit.SECONDS));
+        releaser.join();
+    }
+
+    @Test
+    public void shouldAdaptLimitToRepositoryLatency() {
+        long target = TimeUnit.MILLISECONDS.toNanos(20);
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10, 0, 20, 100, TimeUnit.MILLISECONDS);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += interval;
+            limiter.observe(10 * target, now);
+        }
+        assertEquals(2, limiter.limit());
+        for (int i = 0; i < 200; i++) {
+            now += interval;
+            limiter.observe(target / 2, now);
+        }
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    public void shouldAdjustOncePerIntervalUnderConcurrentObservations() throws InterruptedException {
+        long target = TimeUnit.MILLISECONDS.toNanos(20);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10, 0, 20, 100, TimeUnit.MILLISECONDS);
+        limiter.observe(10 * target, 0);
+        Thread[] observers = new Thread[8];
+        for (int t = 0; t < observers.length; t++) {
+            observers[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    // all within the first interval
+                    limiter.observe(10 * target, 1);
+                }
+            });
+            observers[t].start();
+        }
+        for (Thread observer : observers) {
+            observer.join();
+        }
+        assertEquals(10, limiter.limit());
+
+        limiter.observe(10 * target, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(9, limiter.limit());
+    }
+}
@@ -0,0 +1,111 @@
+package demo.simplerest;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.Semaphore;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"users.async.enabled=true", "spring.datasource.url=jdbc:h2:mem:async;DB_CLOSE_DELAY=-1"})
+@AutoConfigureMockMvc
+public class AsyncRequestTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private Semaphore asyncRequestPermits;
+
+    @Test
+    public void shouldCreateAndFindUserAsynchronously() throws Exception {
+        MvcResult created = mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Async\",\"phone\":\"8100001\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(created))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("name", is("Async")));
+
+        MvcResult found = mockMvc.perform(get("/users/name/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(found))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].phone", is("8100001")));
+    }
+
+    @Test
+    public void shouldMapExceptionsRaisedOnDbExecutor() throws Exception {
+        MvcResult result = mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"phone\":\"8100002\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldStreamAllUsersAsynchronously() throws Exception {
+        MvcResult result = mockMvc.perform(get("/users"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+        // the handler streams into the original response, the dispatch gets a fresh one from MockMvc
+        assertTrue(result.getResponse().getContentAsString().startsWith("["));
+    }
+
+    @Test
+    public void shouldCountSqlStatementsRunOnDbExecutor() throws Exception {
+        MvcResult result = mockMvc.perform(get("/users/name/counted"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+
+        DistributionSummary statements = meterRegistry.find("http.server.requests.sql.statements")
+                .tags("method", "GET", "uri", "/users/name/{name}").summary();
+        assertNotNull(statements);
+        assertTrue(statements.totalAmount() > 0);
+    }
+
+    @Test
+    public void shouldRejectOnceWhenExecutorIsSaturated() throws Exception {
+        int drained = asyncRequestPermits.drainPermits();
+        try {
+            mockMvc.perform(get("/users/name/rejected"))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string("Retry-After", "1"))
+                    .andExpect(content().string("Too many concurrent requests"));
+        } finally {
+            asyncRequestPermits.release(drained);
+        }
+    }
+
+    @Test
+    public void shouldKeepActuatorEndpointsSynchronous() throws Exception {
+        mockMvc.perform(get("/health"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,135 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.CachingUserService;
+import demo.simplerest.services.UserService;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CachingUserServiceTest {
+    private UserService delegate;
+    private CachingUserService cachingUserService;
+
+    @Before
+    public void setup() {
+        delegate = mock(UserService.class);
+        cachingUserService = new CachingUserService(delegate, 100, 60);
+    }
+
+    @Test
+    public void shouldServeRepeatedFindByIdFromCache() {
+        when(delegate.findById(1l)).thenReturn(newUser(1l, "Jane", "111"));
+
+        cachingUserService.findById(1l);
+        User user = cachingUserService.findById(1l);
+
+        assertEquals("Jane", user.getName());
+        verify(delegate, times(1)).findById(1l);
+        assertEquals(1, cachingUserService.stats().hitCount());
+        assertEquals(1, cachingUserService.stats().missCount());
+    }
+
+    @Test
+    public void shouldNotExposeCachedInstance() {
+        when(delegate.findById(1l)).thenReturn(newUser(1l, "Jane", "111"));
+
+        cachingUserService.findById(1l).setName("Changed");
+
+        assertEquals("Jane", cachingUserService.findById(1l).getName());
+    }
+
+    @Test
+    public void shouldServeFindByPhoneThroughIdCache() {
+        when(delegate.findByPhone("111")).thenReturn(newUser(1l, "Jane", "111"));
+
+        cachingUserService.findByPhone("111");
+        User user = cachingUserService.findByPhone("111");
+
+        assertEquals(Long.valueOf(1l), user.getId());
+        verify(delegate, times(1)).findByPhone("111");
+        verify(delegate, never()).findById(anyLong());
+    }
+
+    @Test
+    public void shouldRefreshEntryOnUpdate() throws InvalidDataException {
+        when(delegate.findById(1l)).thenReturn(newUser(1l, "Jane", "111"));
+        cachingUserService.findById(1l);
+
+        User updated = newUser(1l, "Janet", "222");
+        updated.setVersion(1l);
+        when(delegate.update(updated)).thenReturn(updated);
+        cachingUserService.update(updated);
+
+        assertEquals("Janet", cachingUserService.findById(1l).getName());
+        assertEquals("Janet", cachingUserService.findByPhone("222").getName());
+        verify(delegate, times(1)).findById(1l);
+    }
+
+    @Test
+    public void shouldReloadEntryUpdatedWithoutVersion() throws InvalidDataException {
+        when(delegate.findById(1l)).thenReturn(newUser(1l, "Jane", "111"));
+        cachingUserService.findById(1l);
+
+        User updated = newUser(1l, "Janet", "111");
+        when(delegate.update(updated)).thenReturn(updated);
+        cachingUserService.update(updated);
+        cachingUserService.findById(1l);
+
+        verify(delegate, times(2)).findById(1l);
+    }
+
+    @Test
+    public void shouldNotResolveOldPhoneAfterUpdate() throws InvalidDataException {
+        when(delegate.findByPhone("111")).thenReturn(newUser(1l, "Jane", "111"));
+        cachingUserService.findByPhone("111");
+
+        User updated = newUser(1l, "Jane", "222");
+        when(delegate.update(updated)).thenReturn(updated);
+        cachingUserService.update(updated);
+        when(delegate.findByPhone("111")).thenReturn(null);
+
+        assertNull(cachingUserService.findByPhone("111"));
+    }
+
+    @Test
+    public void shouldEvictEntryOnRemove() {
+        when(delegate.findById(1l)).thenReturn(newUser(1l, "Jane", "111"));
+        cachingUserService.findById(1l);
+
+        cachingUserService.remove(1l);
+        when(delegate.findById(1l)).thenReturn(null);
+
+        assertNull(cachingUserService.findById(1l));
+        verify(delegate, times(2)).findById(1l);
+    }
+
+    @Test
+    public void shouldNotCacheRowLoadedBeforeConcurrentUpdate() throws InvalidDataException {
+        User updated = newUser(1l, "Janet", "222");
+        updated.setVersion(1l);
+        when(delegate.update(updated)).thenReturn(updated);
+        when(delegate.findById(1l)).thenAnswer(invocation -> {
+            // the update commits and caches its result while this read still holds the old row
+            cachingUserService.update(updated);
+            User stale = newUser(1l, "Jane", "111");
+            stale.setVersion(0l);
+            return stale;
+        }).thenReturn(updated);
+
+        assertEquals("Jane", cachingUserService.findById(1l).getName());
+
+        assertEquals("Janet", cachingUserService.findById(1l).getName());
+        assertEquals("Janet", cachingUserService.findByPhone("222").getName());
+    }
+
+    private User newUser(Long id, String name, String phone) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setPhone(phone);
+        return user;
+    }
+}
@@ -0,0 +1,120 @@
+package demo.simplerest;
+
+import demo.simplerest.cache.LoopbackInvalidationBus;
+import demo.simplerest.cache.LoopbackSharedCache;
+import demo.simplerest.entities.User;
+import demo.simplerest.services.CachingUserService;
+import demo.simplerest.services.UserService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Several {@link CachingUserService} nodes over one store, as instances behind a load balancer share a database.
+ */
+public class ClusteredCacheTest {
+    private static final int NODES = 3;
+
+    private final Map<Long, User> database = new ConcurrentHashMap<>();
+    private final AtomicInteger databaseReads = new AtomicInteger();
+    private final List<CachingUserService> nodes = new ArrayList<>();
+
+    @Before
+    public void setup() throws InvalidDataException {
+        UserService store = mock(UserService.class);
+        when(store.findById(anyLong())).thenAnswer(invocation -> {
+            databaseReads.incrementAndGet();
+            User user = database.get((Long) invocation.getArguments()[0]);
+            return user == null ? null : User.copyOf(user);
+        });
+        when(store.update(any())).thenAnswer(invocation -> {
+            User requested = (User) invocation.getArguments()[0];
+            User stored = User.copyOf(requested);
+            stored.setVersion(database.get(requested.getId()).getVersion() + 1);
+            database.put(stored.getId(), stored);
+            // like the real store, an update without an expected version does not report the new one
+            User updated = User.copyOf(stored);
+            if (requested.getVersion() == null) {
+                updated.setVersion(null);
+            }
+            return updated;
+        });
+        when(store.remove(anyLong(), any())).thenAnswer(invocation ->
+                database.remove((Long) invocation.getArguments()[0]) != null);
+
+        String cluster = UUID.randomUUID().toString();
+        for (int i = 0; i < NODES; i++) {
+            CachingUserService node = new CachingUserService(store, 100, 60);
+            node.setSharedCache(new LoopbackSharedCache(cluster, 100, 60));
+            node.setInvalidationBus(new LoopbackInvalidationBus(cluster));
+            nodes.add(node);
+        }
+        database.put(1l, newUser(1l, "Jane", 0l));
+    }
+
+    @Test
+    public void shouldLoadUserFromDatabaseOnceForWholeCluster() {
+        for (CachingUserService node : nodes) {
+            assertEquals("Jane", node.findById(1l).getName());
+            assertEquals("Jane", node.findById(1l).getName());
+        }
+
+        assertEquals(1, databaseReads.get());
+        assertEquals(NODES - 1, nodes.stream().mapToLong(CachingUserService::sharedHitCount).sum());
+    }
+
+    @Test
+    public void shouldSeeUpdateMadeOnAnotherNode() throws InvalidDataException {
+        nodes.forEach(node -> node.findById(1l));
+
+        nodes.get(0).update(newUser(1l, "Jane Doe", 0l));
+
+        for (CachingUserService node : nodes) {
+            assertEquals("Jane Doe", node.findById(1l).getName());
+        }
+        // the new version was written through, nobody had to reload it
+        assertEquals(1, databaseReads.get());
+    }
+
+    @Test
+    public void shouldReloadUserUpdatedWithoutVersionOnAnotherNode() throws InvalidDataException {
+        nodes.forEach(node -> node.findById(1l));
+
+        nodes.get(1).update(newUser(1l, "Janet", null));
+
+        for (CachingUserService node : nodes) {
+            assertEquals("Janet", node.findById(1l).getName());
+        }
+        assertEquals(2, databaseReads.get());
+    }
+
+    @Test
+    public void shouldNotFindUserRemovedOnAnotherNode() {
+        nodes.forEach(node -> node.findById(1l));
+
+        assertTrue(nodes.get(2).remove(1l, null));
+
+        for (CachingUserService node : nodes) {
+            assertNull(node.findById(1l));
+        }
+    }
+
+    private static User newUser(Long id, String name, Long version) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setVersion(version);
+        return user;
+    }
+}
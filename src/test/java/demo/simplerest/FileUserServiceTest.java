@@ -0,0 +1,60 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.FileUserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FileUserServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileUserService fileUserService;
+
+    @Before
+    public void setup() throws IOException {
+        fileUserService = new FileUserService(folder.getRoot().getPath(), false, Long.MAX_VALUE);
+    }
+
+    @After
+    public void close() throws IOException {
+        fileUserService.close();
+    }
+
+    @Test
+    public void shouldSwapPhonesWithinBatch() throws InvalidDataException {
+        User jane = fileUserService.create(newUser("Jane", "100"));
+        User john = fileUserService.create(newUser("John", "200"));
+        jane.setPhone("200");
+        john.setPhone("100");
+
+        fileUserService.updateAll(Arrays.asList(jane, john));
+
+        assertEquals("Jane", fileUserService.findByPhone("200").getName());
+        assertEquals("John", fileUserService.findByPhone("100").getName());
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void shouldRejectPhoneOfUserOutsideBatch() throws InvalidDataException {
+        User jane = fileUserService.create(newUser("Jane", "100"));
+        fileUserService.create(newUser("John", "200"));
+        jane.setPhone("200");
+
+        fileUserService.updateAll(Arrays.asList(jane));
+    }
+
+    private User newUser(String name, String phone) {
+        User user = new User();
+        user.setName(name);
+        user.setPhone(phone);
+        return user;
+    }
+}
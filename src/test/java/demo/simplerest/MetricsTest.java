@@ -0,0 +1,40 @@
+package demo.simplerest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class MetricsTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void shouldExposeRequestRepositoryAndSqlMetricsInPrometheusFormat() throws Exception {
+        mockMvc.perform(get("/users/name/metrics")).andExpect(status().isOk());
+        mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content("{\"phone\":\"8000001\"}"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("http_server_requests_seconds_count{exception=\"None\",method=\"GET\",status=\"200\",uri=\"/users/name/{name}\",}")))
+                .andExpect(content().string(containsString("status=\"400\",uri=\"/users\"")))
+                .andExpect(content().string(containsString("http_server_requests_seconds{exception=\"None\",method=\"GET\",status=\"200\",uri=\"/users/name/{name}\",quantile=\"0.99\",}")))
+                .andExpect(content().string(containsString("users_repository_seconds_count{method=\"findByNameLowerPrefix\",outcome=\"success\",}")))
+                .andExpect(content().string(containsString("http_server_requests_sql_statements_count{method=\"GET\",uri=\"/users/name/{name}\",}")))
+                .andExpect(content().string(containsString("cache_users_hit_total")));
+    }
+}
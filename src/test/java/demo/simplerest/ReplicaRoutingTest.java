@@ -0,0 +1,168 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.replica.ReplicaDataSources;
+import demo.simplerest.replica.UserReplicator;
+import demo.simplerest.services.UserChangeFeed;
+import demo.simplerest.services.UserLookupCoalescer;
+import demo.simplerest.services.UserService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"users.cache.enabled=false", "users.replica.enabled=true",
+        "users.replica.max-staleness-ms=60000",
+        "spring.datasource.url=jdbc:h2:mem:replicated;DB_CLOSE_DELAY=-1",
+        "users.replica.datasource.jdbc-url=jdbc:h2:mem:replica-test;DB_CLOSE_DELAY=-1"})
+@AutoConfigureMockMvc
+public class ReplicaRoutingTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserReplicator userReplicator;
+
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Autowired
+    private UserLookupCoalescer userLookupCoalescer;
+
+    @Autowired
+    private ReplicaDataSources replicaDataSources;
+
+    @Test
+    public void shouldCopyWritesToReplica() throws Exception {
+        User user = new User();
+        user.setName("Replicated");
+        user.setPhone("8300001");
+        User created = userService.create(user);
+        created.setName("Replicated again");
+        userService.update(created);
+
+        awaitCaughtUp();
+        assertEquals("Replicated again", new JdbcTemplate(replicaDataSources.replica())
+                .queryForObject("select name from user where id = ?", String.class, created.getId()));
+
+        userService.remove(created.getId());
+        awaitCaughtUp();
+        assertEquals(Integer.valueOf(0), new JdbcTemplate(replicaDataSources.replica())
+                .queryForObject("select count(*) from user where id = ?", Integer.class, created.getId()));
+    }
+
+    @Test
+    public void shouldServeReadOnlyLookupsFromReplica() throws Exception {
+        awaitCaughtUp();
+        // only the replica knows this user, so finding it proves where the read went
+        new JdbcTemplate(replicaDataSources.replica()).update("insert into user (id, name, name_lower, phone, version) " +
+                "values (?, ?, ?, ?, ?)", 990001l, "Replica only", "replica only", "8300002", 0l);
+
+        User found = userService.findById(990001l);
+        assertNotNull(found);
+        assertEquals("Replica only", found.getName());
+        // validation of a write still asks the primary, where the phone is free
+        assertNotNull(userService.create(newUser("8300002")).getId());
+    }
+
+    @Test
+    public void shouldReadOwnWritesRightAfterWriting() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            MvcResult created = mockMvc.perform(post("/users").header("X-API-Key", "writer")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"name\":\"Own " + i + "\",\"phone\":\"84000" + i + "\"}"))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            String id = created.getResponse().getContentAsString().replaceAll(".*\"id\":(\\d+).*", "$1");
+            mockMvc.perform(put("/users").header("X-API-Key", "writer")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"id\":" + id + ",\"name\":\"Own renamed " + i + "\",\"phone\":\"84000" + i + "\"}"))
+                    .andExpect(status().isOk());
+            mockMvc.perform(get("/users/" + id).header("X-API-Key", "writer"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("name", is("Own renamed " + i)));
+        }
+    }
+
+    @Test
+    public void shouldNotJoinLookupOfAnotherClientAfterWriting() throws Exception {
+        MvcResult created = mockMvc.perform(post("/users").header("X-API-Key", "coalesced-writer")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Before rename\",\"phone\":\"8300003\"}"))
+                .andExpect(status().isOk())
+                .andReturn();
+        long id = Long.parseLong(created.getResponse().getContentAsString().replaceAll(".*\"id\":(\\d+).*", "$1"));
+        mockMvc.perform(put("/users").header("X-API-Key", "coalesced-writer")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\":" + id + ",\"name\":\"After rename\",\"phone\":\"8300003\"}"))
+                .andExpect(status().isOk());
+
+        // another client's lookup in flight, answered by a replica that has not applied the rename
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch answered = new CountDownLatch(1);
+        Thread otherClient = new Thread(() -> userLookupCoalescer.findById(id, () -> {
+            loading.countDown();
+            try {
+                answered.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            User stale = new User();
+            stale.setId(id);
+            stale.setName("Before rename");
+            stale.setPhone("8300003");
+            stale.setVersion(0l);
+            return stale;
+        }));
+        otherClient.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        try {
+            mockMvc.perform(get("/users/" + id).header("X-API-Key", "coalesced-writer"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("name", is("After rename")));
+        } finally {
+            answered.countDown();
+            otherClient.join();
+        }
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!userReplicator.canServe(userChangeFeed.lastSequence())) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Replica did not catch up, applied " + userReplicator.appliedSequence());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static User newUser(String phone) {
+        User user = new User();
+        user.setName("Primary");
+        user.setPhone(phone);
+        return user;
+    }
+}
@@ -0,0 +1,95 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.ShardedUserService;
+import demo.simplerest.services.UserChange;
+import demo.simplerest.services.UserChangeFeed;
+import demo.simplerest.services.UserService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"users.cache.enabled=false", "users.shards.count=3",
+        "users.shards.url=jdbc:h2:mem:test-shard-{shard};DB_CLOSE_DELAY=-1"})
+@ActiveProfiles("sharded")
+public class ShardedUserServiceTest {
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Test
+    public void shouldUseShardedStore() {
+        assertTrue(userService instanceof ShardedUserService);
+    }
+
+    @Test
+    public void shouldFindCreatedUsersOnEveryShard() throws InvalidDataException {
+        List<User> created = userService.createAll(Arrays.asList(newUser("Shard A", "9100001"),
+                newUser("Shard B", "9100002"), newUser("Shard C", "9100003"), newUser("Shard D", "9100004")));
+
+        for (User user : created) {
+            assertEquals(user.getName(), userService.findById(user.getId()).getName());
+        }
+        List<String> names = userService.findByName("shard", 1, 2).stream().map(User::getName).collect(Collectors.toList());
+        assertEquals(Arrays.asList("Shard B", "Shard C"), names);
+        assertEquals("Shard D", userService.findByPhone("9100004").getName());
+    }
+
+    @Test
+    public void shouldPageAcrossShardsInIdOrder() throws InvalidDataException {
+        List<User> created = userService.createAll(Arrays.asList(newUser("Page 1", "9200001"),
+                newUser("Page 2", "9200002"), newUser("Page 3", "9200003")));
+        long first = created.get(0).getId();
+
+        List<User> page = userService.findPage(first - 1, 2);
+        assertEquals(Arrays.asList(first, first + 1), page.stream().map(User::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldReportOnlyExistingUsersRemovedInBatch() throws InvalidDataException {
+        List<User> created = userService.createAll(Arrays.asList(newUser("Removed 1", "9500001"),
+                newUser("Removed 2", "9500002")));
+        long before = userChangeFeed.lastSequence();
+
+        assertEquals(2, userService.removeAll(Arrays.asList(created.get(0).getId(), created.get(1).getId(), 990005l)));
+
+        List<Long> deleted = userChangeFeed.readAfter(before, 100).stream().map(UserChange::getUserId)
+                .sorted().collect(Collectors.toList());
+        assertEquals(Arrays.asList(created.get(0).getId(), created.get(1).getId()), deleted);
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void shouldRejectPhoneUsedOnAnotherShard() throws InvalidDataException {
+        userService.create(newUser("Owner", "9300001"));
+        userService.create(newUser("Copy", "9300001"));
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void shouldRejectStaleVersionOnUpdate() throws InvalidDataException {
+        User user = userService.create(newUser("Versioned", "9400001"));
+        user.setVersion(0l);
+        userService.update(user);
+        user.setVersion(0l);
+        userService.update(user);
+    }
+
+    private User newUser(String name, String phone) {
+        User user = new User();
+        user.setName(name);
+        user.setPhone(phone);
+        return user;
+    }
+}
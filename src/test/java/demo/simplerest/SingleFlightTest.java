@@ -0,0 +1,89 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.SingleFlight;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private final SingleFlight<Long, User> singleFlight = new SingleFlight<>(User::copyOf);
+
+    @Test
+    public void shouldShareOneLoadBetweenConcurrentCallers() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<User>> results = new ArrayList<>();
+            results.add(executor.submit(() -> singleFlight.execute(1l, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return newUser(1l);
+            })));
+            loading.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> singleFlight.execute(1l, () -> {
+                    loads.incrementAndGet();
+                    return newUser(1l);
+                })));
+            }
+            while (singleFlight.coalesced() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            User first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<User> result : results) {
+                assertEquals("User 1", result.get(5, TimeUnit.SECONDS).getName());
+            }
+            assertNotSame(first, results.get(1).get());
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldLoadAgainOnceCompleted() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute(1l, () -> newUser(loads.incrementAndGet()));
+        singleFlight.execute(1l, () -> newUser(loads.incrementAndGet()));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, singleFlight.coalesced());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldPropagateLoadFailure() {
+        singleFlight.execute(1l, () -> {
+            throw new IllegalStateException("failed");
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private User newUser(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        return user;
+    }
+}
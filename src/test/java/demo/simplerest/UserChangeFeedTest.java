@@ -0,0 +1,57 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserChange;
+import demo.simplerest.services.UserChangeFeed;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserChangeFeedTest {
+    private final UserChangeFeed userChangeFeed = new UserChangeFeed(3);
+
+    @Test
+    public void shouldReadChangesAfterSequenceInOrder() {
+        userChangeFeed.publish(UserChange.Type.CREATED, 1l, newUser(1l));
+        userChangeFeed.publish(UserChange.Type.UPDATED, 1l, newUser(1l));
+        userChangeFeed.publish(UserChange.Type.DELETED, 1l, null);
+
+        List<UserChange> changes = userChangeFeed.readAfter(1l, 10);
+        assertEquals(2, changes.size());
+        assertEquals(2l, changes.get(0).getSequence());
+        assertEquals(UserChange.Type.UPDATED, changes.get(0).getType());
+        assertEquals(UserChange.Type.DELETED, changes.get(1).getType());
+        assertNull(changes.get(1).getUser());
+        assertTrue(userChangeFeed.readAfter(3l, 10).isEmpty());
+    }
+
+    @Test
+    public void shouldReportOverwrittenChanges() {
+        for (long id = 1; id <= 5; id++) {
+            userChangeFeed.publish(UserChange.Type.CREATED, id, newUser(id));
+        }
+
+        assertNull(userChangeFeed.readAfter(1l, 10));
+        assertEquals(3, userChangeFeed.readAfter(2l, 10).size());
+        assertNull(userChangeFeed.readAfter(6l, 10));
+    }
+
+    @Test
+    public void shouldNotifyListenersOnPublish() {
+        AtomicInteger notified = new AtomicInteger();
+        userChangeFeed.addListener(notified::incrementAndGet);
+        userChangeFeed.publish(UserChange.Type.CREATED, 1l, newUser(1l));
+
+        assertEquals(1, notified.get());
+    }
+
+    private User newUser(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        return user;
+    }
+}
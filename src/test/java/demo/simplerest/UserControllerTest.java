@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import demo.simplerest.controllers.UserController;
 import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+import demo.simplerest.repositories.UserTableVersion;
 import demo.simplerest.services.UserService;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +13,9 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
@@ -19,16 +24,30 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -39,6 +58,8 @@ public class UserControllerTest {
     private UserController userController;
     @Mock
     private UserService userService;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
 
     private MockMvc mockMvc;
 
@@ -62,7 +83,6 @@ public class UserControllerTest {
     @Test
     public void shouldReturnOkStatusOnUpdate() throws Exception {
         User user = newUser();
-        when(userService.findById(user.getId())).thenReturn(user);
         when(userService.update(any(User.class))).thenReturn(user);
         mockMvc.perform(
                 put("/users/")
@@ -74,8 +94,7 @@ public class UserControllerTest {
     @Test
     public void shouldReturn404IfUpdateNotExistedUser() throws Exception {
         User user = newUser();
-        when(userService.findById(user.getId())).thenReturn(null);
-        when(userService.update(user)).thenReturn(user);
+        when(userService.update(any(User.class))).thenReturn(null);
         mockMvc.perform(
                 put("/users/")
                         .contentType(APPLICATION_JSON_UTF8)
@@ -87,8 +106,7 @@ public class UserControllerTest {
     @Test
     public void shouldReturnOkStatusOnDelete() throws Exception {
         User user = newUser();
-        when(userService.findById(user.getId())).thenReturn(user);
-        doNothing().when(userService).remove(user.getId());
+        when(userService.remove(user.getId(), null)).thenReturn(true);
         mockMvc.perform(
                 delete("/users/" + user.getId()))
                 .andExpect(MockMvcResultMatchers.status().isOk());
@@ -97,22 +115,106 @@ public class UserControllerTest {
     @Test
     public void shouldReturn404IfDeleteNotExistedUser() throws Exception {
         User user = newUser();
-        when(userService.findById(user.getId())).thenReturn(null);
-        doNothing().when(userService).remove(user.getId());
+        when(userService.remove(user.getId(), null)).thenReturn(false);
         mockMvc.perform(
                 delete("/users/" + user.getId()))
                 .andExpect(MockMvcResultMatchers.status().isNotFound());
     }
 
+    @Test
+    public void shouldPassIfMatchVersionOnUpdate() throws Exception {
+        User user = newUser();
+        User updatedUser = newUser();
+        updatedUser.setVersion(4l);
+        when(userService.update(argThat(hasProperty("version", is(3l))))).thenReturn(updatedUser);
+        mockMvc.perform(
+                put("/users/")
+                        .header("If-Match", "\"3\"")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(user)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(header().string("ETag", "\"4\""));
+    }
+
+    @Test
+    public void shouldReturn412IfUpdateWithStaleVersion() throws Exception {
+        User user = newUser();
+        when(userService.update(any(User.class))).thenThrow(new OptimisticLockingFailureException("stale"));
+        mockMvc.perform(
+                put("/users/")
+                        .header("If-Match", "\"1\"")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(user)))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+    }
+
+    @Test
+    public void shouldReportPhoneConstraintViolationAsDuplicatePhone() throws Exception {
+        User user = newUser();
+        user.setPhone("8500001");
+        when(userService.create(any(User.class))).thenThrow(new DataIntegrityViolationException("could not execute statement",
+                new SQLException("Unique index or primary key violation: \"UK_USER_PHONE_INDEX_2 ON PUBLIC.USER(PHONE)\"")));
+        mockMvc.perform(
+                post("/users/")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(user)))
+                .andExpect(MockMvcResultMatchers.status().isConflict())
+                .andExpect(content().string("User with such phone already exists"));
+    }
+
+    @Test
+    public void shouldNotBlameOtherConstraintViolationsOnPhone() throws Exception {
+        User user = newUser();
+        user.setPhone("8500002");
+        when(userService.create(any(User.class))).thenThrow(new DataIntegrityViolationException("could not execute statement",
+                new SQLException("NULL not allowed for column \"NAME\"")));
+        mockMvc.perform(
+                post("/users/")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(user)))
+                .andExpect(MockMvcResultMatchers.status().isConflict())
+                .andExpect(content().string("Request conflicts with the stored users"));
+    }
+
+    @Test
+    public void shouldPassIfMatchVersionOnDelete() throws Exception {
+        when(userService.remove(15l, 2l)).thenReturn(true);
+        mockMvc.perform(
+                delete("/users/15").header("If-Match", "\"2\""))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    public void shouldReturnOkStatusOnBatchSave() throws Exception {
+        List<User> users = Arrays.asList(newUser(), newUser());
+        when(userService.createAll(any())).thenReturn(users);
+        mockMvc.perform(
+                post("/users/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(users)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()", is(2)));
+    }
+
+    @Test
+    public void shouldReturnDeletedCountOnBatchDelete() throws Exception {
+        when(userService.removeAll(any())).thenReturn(2);
+        mockMvc.perform(
+                delete("/users/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(convertObjectToJsonBytes(Arrays.asList(1, 2, 3))))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("deleted", is(2)));
+    }
+
     @Test
     public void shouldReturnUsersOnFindAll() throws Exception {
-        when(userService.findAll()).thenReturn(new ArrayList<>());
         User user1 = newUser();
         User user2 = new User();
         user2.setName("Jane");
         user2.setId(19l);
 
-        when(userService.findAll()).thenReturn(Arrays.asList(user1, user2));
+        stubForEach(Arrays.asList(user1, user2));
         mockMvc.perform(get("/users")).andDo(print());
         mockMvc.perform(
                 get("/users"))
@@ -122,7 +224,7 @@ public class UserControllerTest {
 
     @Test
     public void shouldReturnEmptyListOnFindAllIfUsersNotExist() throws Exception {
-        when(userService.findAll()).thenReturn(new ArrayList<>());
+        stubForEach(new ArrayList<>());
         mockMvc.perform(
                 get("/users"))
                 .andExpect(MockMvcResultMatchers.status().isOk())
@@ -130,6 +232,75 @@ public class UserControllerTest {
 
     }
 
+    @Test
+    public void shouldReturnPageOfUsersAfterId() throws Exception {
+        User user = newUser();
+        when(userService.findPage(eq(10l), eq(2))).thenReturn(Arrays.asList(user));
+        mockMvc.perform(
+                get("/users?after=10&limit=2"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(content().json("[{'id':15,'name':'Jane','phone':null}]"));
+    }
+
+    @Test
+    public void shouldReturnAllFieldErrorsOnInvalidUser() throws Exception {
+        when(userService.create(any())).thenThrow(new InvalidDataException(Arrays.asList(
+                new InvalidDataException.FieldError("name", "User name is mandatory"),
+                new InvalidDataException.FieldError("phone", "User phone is longer than 255"))));
+        mockMvc.perform(
+                post("/users")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content("{\"phone\":\"1\"}"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(jsonPath("message", is("User name is mandatory")))
+                .andExpect(jsonPath("errors[0].field", is("name")))
+                .andExpect(jsonPath("errors[1].field", is("phone")))
+                .andExpect(jsonPath("errors[1].message", is("User phone is longer than 255")));
+    }
+
+    @Test
+    public void shouldReturnOnlySelectedFieldsOnSearch() throws Exception {
+        when(userService.findByName(eq("jane"), eq(0), eq(100), eq(Arrays.asList(UserField.ID, UserField.NAME))))
+                .thenReturn(Collections.singletonList(new Object[]{15l, "Jane"}));
+        mockMvc.perform(
+                get("/users/name/jane?fields=id,name"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(content().string("[{\"id\":15,\"name\":\"Jane\"}]"));
+    }
+
+    @Test
+    public void shouldWalkAllPagesForSelectedFields() throws Exception {
+        List<Object[]> firstPage = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            firstPage.add(new Object[]{"User " + id, id});
+        }
+        List<UserField> read = Arrays.asList(UserField.NAME, UserField.ID);
+        when(userService.findPage(eq(0l), eq(1000), eq(read))).thenReturn(firstPage);
+        when(userService.findPage(eq(1000l), eq(1000), eq(read)))
+                .thenReturn(Collections.singletonList(new Object[]{"User 1001", 1001l}));
+        mockMvc.perform(
+                get("/users?fields=name"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()", is(1001)))
+                .andExpect(jsonPath("$[1000].name", is("User 1001")))
+                .andExpect(jsonPath("$[1000].id").doesNotExist());
+    }
+
+    @Test
+    public void shouldRejectUnknownField() throws Exception {
+        mockMvc.perform(
+                get("/users/name/jane?fields=id,password"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(jsonPath("errors[0].field", is("fields")));
+    }
+
+    @Test
+    public void shouldRejectTooLargePage() throws Exception {
+        mockMvc.perform(
+                get("/users?limit=100000"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
     @Test
     public void shouldReturn404WhenUserNotFoundById() throws Exception {
         User user = newUser();
@@ -143,7 +314,7 @@ public class UserControllerTest {
     @Test
     public void shouldReturnEmptyListWhenUserNotFoundByName() throws Exception {
         User user = newUser();
-        when(userService.findByName(user.getName())).thenReturn(new ArrayList<>());
+        when(userService.findByName(user.getName(), 0, 100)).thenReturn(new ArrayList<>());
         mockMvc.perform(
                 get("/users/name/" + user.getName()))
                 .andExpect(MockMvcResultMatchers.status().isOk())
@@ -153,13 +324,23 @@ public class UserControllerTest {
     @Test
     public void shouldReturnUserIfItFoundByName() throws Exception {
         User user = newUser();
-        when(userService.findByName(user.getName())).thenReturn(Arrays.asList(user));
+        when(userService.findByName(user.getName(), 0, 100)).thenReturn(Arrays.asList(user));
         mockMvc.perform(
                 get("/users/name/" + user.getName()))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(content().json("[{'id':15,'name':'Jane','phone':null}]"));
     }
 
+    @Test
+    public void shouldPassOffsetAndLimitOnFindByName() throws Exception {
+        User user = newUser();
+        when(userService.findByName("ja", 20, 10)).thenReturn(Arrays.asList(user));
+        mockMvc.perform(
+                get("/users/name/ja?offset=20&limit=10"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(content().json("[{'id':15,'name':'Jane'}]"));
+    }
+
     @Test
     public void shouldReturnUserIfItFoundById() throws Exception {
         User user = newUser();
@@ -173,6 +354,72 @@ public class UserControllerTest {
 
     }
 
+    @Test
+    public void shouldExportUsersAsNdjson() throws Exception {
+        User user1 = newUser();
+        User user2 = newUser();
+        user2.setId(19l);
+
+        stubForEach(Arrays.asList(user1, user2));
+        mockMvc.perform(
+                get("/users/export"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string(allOf(startsWith("{\"id\":15,"), containsString("}\n{\"id\":19,"), endsWith("}\n"))));
+    }
+
+    @Test
+    public void shouldReportErrorsPerLineOnImport() throws Exception {
+        when(userService.importAll(any())).thenReturn(Collections.singletonMap(1, "User name is mandatory"));
+        mockMvc.perform(
+                post("/users/import")
+                        .contentType("application/x-ndjson")
+                        .content("{\"name\":\"Jane\",\"phone\":\"1\"}\n"
+                                + "not json\n"
+                                + "\n"
+                                + "{\"phone\":\"2\"}\n"
+                                + "{\"name\":\"John\"}\n"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("imported", is(2)))
+                .andExpect(jsonPath("failed", is(2)))
+                .andExpect(jsonPath("errors[0].line", is(2)))
+                .andExpect(jsonPath("errors[1].line", is(4)))
+                .andExpect(jsonPath("errors[1].message", is("User name is mandatory")));
+    }
+
+    @Test
+    public void shouldReturn304IfUserNotModified() throws Exception {
+        User user = newUser();
+        user.setVersion(3l);
+        when(userService.findById(user.getId())).thenReturn(user);
+        mockMvc.perform(
+                get("/users/" + user.getId()).header("If-None-Match", "\"3\""))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void shouldReturn304WithoutReadingUsersIfTableNotModified() throws Exception {
+        when(userService.tableVersion()).thenReturn(new UserTableVersion(2l, 19l, 5l));
+        mockMvc.perform(
+                get("/users").header("If-None-Match", "\"t2-19-5\""))
+                .andExpect(MockMvcResultMatchers.status().isNotModified());
+        verify(userService, never()).forEach(any());
+
+        mockMvc.perform(
+                get("/users?after=0&limit=10").header("If-None-Match", "\"t2-19-5\""))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(header().string("ETag", "\"t2-19-5-0-10\""));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubForEach(List<User> users) {
+        doAnswer(invocation -> {
+            users.forEach((Consumer<User>) invocation.getArguments()[0]);
+            return null;
+        }).when(userService).forEach(any(Consumer.class));
+    }
+
     private User newUser() {
         User user = new User();
         user.setName("Jane");
@@ -0,0 +1,64 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserRepository;
+import demo.simplerest.services.UserIdBatcher;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UserIdBatcherTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldMergeLookupsWithinWindow() throws Exception {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findAll(any(Iterable.class))).thenReturn(Arrays.asList(newUser(1l), newUser(2l)));
+        UserIdBatcher batcher = new UserIdBatcher(userRepository, 200, 2, 1);
+        try {
+            CompletableFuture<User> first = CompletableFuture.supplyAsync(() -> batcher.findById(1l));
+            CompletableFuture<User> second = CompletableFuture.supplyAsync(() -> batcher.findById(2l));
+
+            assertEquals(Long.valueOf(1l), first.get(5, TimeUnit.SECONDS).getId());
+            assertEquals(Long.valueOf(2l), second.get(5, TimeUnit.SECONDS).getId());
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFailWaitingLookupsOnShutdown() throws Exception {
+        // the window never closes on its own, the lookup waits in the collector's batch
+        UserIdBatcher batcher = new UserIdBatcher(mock(UserRepository.class), 60000, 100, 1);
+        CompletableFuture<User> waiting = CompletableFuture.supplyAsync(() -> batcher.findById(1l));
+        Thread.sleep(100);
+        batcher.shutdown();
+
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("Lookup should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            batcher.findById(2l);
+            fail("Lookup after shutdown should have failed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static User newUser(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        return user;
+    }
+}
@@ -0,0 +1,118 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.storage.UserJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UserJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayAppendedUsersInOrderAfterCrash() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserJournal crashed = new UserJournal(directory, true);
+        crashed.append(newUser(1l, "Jane", 1l));
+        crashed.append(newUser(2l, "John", 1l));
+        crashed.append(newUser(1l, "Janet", 2l));
+        // never closed
+
+        List<User> recovered = recover(directory);
+        assertEquals(3, recovered.size());
+        assertEquals("Jane", recovered.get(0).getName());
+        assertEquals("John", recovered.get(1).getName());
+        assertEquals("Janet", recovered.get(2).getName());
+        assertEquals(Long.valueOf(2l), recovered.get(2).getVersion());
+    }
+
+    @Test
+    public void shouldCutOffTornRecordAfterCrash() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserJournal crashed = new UserJournal(directory, false);
+        crashed.append(newUser(1l, "Jane", 1l));
+        crashed.append(newUser(2l, "John", 1l));
+        long segment = crashed.currentSegment();
+        try (RandomAccessFile journal = new RandomAccessFile(directory.resolve("journal-" + segment + ".log").toFile(), "rw")) {
+            journal.setLength(journal.length() - 3);
+        }
+
+        List<User> recovered = recover(directory);
+        assertEquals(1, recovered.size());
+        assertEquals("Jane", recovered.get(0).getName());
+        // the cut stays cut, a later open does not trip over it again
+        assertEquals(1, recover(directory).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRefuseToCutOffDamagedRecordFollowedByOthers() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserJournal crashed = new UserJournal(directory, false);
+        crashed.append(newUser(1l, "Jane", 1l));
+        crashed.append(newUser(2l, "John", 1l));
+        long segment = crashed.currentSegment();
+        try (RandomAccessFile journal = new RandomAccessFile(directory.resolve("journal-" + segment + ".log").toFile(), "rw")) {
+            // a byte of the first record's payload
+            journal.seek(8 + 16);
+            int value = journal.read();
+            journal.seek(8 + 16);
+            journal.write(value ^ 0xff);
+        }
+
+        recover(directory);
+    }
+
+    @Test
+    public void shouldForgetSegmentsDeletedAfterFlush() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (UserJournal journal = new UserJournal(directory, true)) {
+            journal.append(newUser(1l, "Jane", 1l));
+            long segment = journal.rotate();
+            journal.append(newUser(2l, "John", 1l));
+            journal.deleteBefore(segment);
+        }
+
+        List<User> recovered = recover(directory);
+        assertEquals(1, recovered.size());
+        assertEquals("John", recovered.get(0).getName());
+    }
+
+    @Test
+    public void shouldKeepSegmentsOfFailedFlush() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserJournal crashed = new UserJournal(directory, true);
+        crashed.append(newUser(1l, "Jane", 1l));
+        crashed.rotate();
+        crashed.append(newUser(1l, "Janet", 2l));
+
+        List<User> recovered = recover(directory);
+        assertEquals(2, recovered.size());
+        assertEquals("Janet", recovered.get(1).getName());
+    }
+
+    private static List<User> recover(Path directory) throws IOException {
+        List<User> users = new ArrayList<>();
+        try (UserJournal journal = new UserJournal(directory, false)) {
+            journal.forEachRecovered(users::add);
+        }
+        return users;
+    }
+
+    private User newUser(Long id, String name, Long version) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setPhone("p" + id);
+        user.setVersion(version);
+        return user;
+    }
+}
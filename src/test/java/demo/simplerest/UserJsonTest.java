@@ -0,0 +1,73 @@
+package demo.simplerest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.simplerest.entities.User;
+import demo.simplerest.json.UserJson;
+import demo.simplerest.json.UserJsonHttpMessageConverter;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class UserJsonTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void shouldWriteSameJsonAsDatabinding() throws IOException {
+        User user = newUser(15l, "Jane \"J\" Doe", "+1 555", 3l);
+
+        assertEquals(objectMapper.writeValueAsString(user), write(Arrays.asList(user), false));
+    }
+
+    @Test
+    public void shouldWriteNullFields() throws IOException {
+        User user = newUser(null, "Jane", null, null);
+
+        assertEquals("{\"id\":null,\"name\":\"Jane\",\"phone\":null,\"version\":null}", write(Arrays.asList(user), false));
+    }
+
+    @Test
+    public void shouldWriteListsAsArrays() throws IOException {
+        List<User> users = Arrays.asList(newUser(1l, "A", "1", 0l), newUser(2l, "B", "2", 1l));
+
+        assertEquals(objectMapper.writeValueAsString(users), write(users, true));
+    }
+
+    @Test(expected = HttpMessageNotReadableException.class)
+    public void shouldLeaveReadingToJacksonConverter() throws IOException {
+        UserJsonHttpMessageConverter converter = new UserJsonHttpMessageConverter();
+        assertFalse(converter.canRead(User.class, null, MediaType.APPLICATION_JSON));
+
+        converter.read(User.class, null, new MockHttpInputMessage("{\"name\":\"Jane\"}".getBytes("UTF-8")));
+    }
+
+    private String write(List<User> users, boolean asList) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            if (asList) {
+                UserJson.writeAll(generator, users);
+            } else {
+                UserJson.write(generator, users.get(0));
+            }
+        }
+        return writer.toString();
+    }
+
+    private User newUser(Long id, String name, String phone, Long version) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setPhone(phone);
+        user.setVersion(version);
+        return user;
+    }
+}
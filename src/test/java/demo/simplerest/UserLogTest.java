@@ -0,0 +1,127 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.storage.UserLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class UserLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadLatestVersionOfUser() throws IOException {
+        try (UserLog userLog = open(folder.getRoot().toPath())) {
+            userLog.put(newUser(1l, "Jane", 0l));
+            userLog.put(newUser(1l, "Janet", 1l));
+
+            User user = userLog.get(1l);
+            assertEquals("Janet", user.getName());
+            assertEquals(Long.valueOf(1l), user.getVersion());
+            assertEquals(1, userLog.size());
+            assertNull(userLog.get(2l));
+        }
+    }
+
+    @Test
+    public void shouldForgetDeletedUser() throws IOException {
+        try (UserLog userLog = open(folder.getRoot().toPath())) {
+            userLog.put(newUser(1l, "Jane", 0l));
+
+            assertTrue(userLog.delete(1l));
+            assertFalse(userLog.delete(1l));
+            assertNull(userLog.get(1l));
+            assertEquals(0, userLog.size());
+        }
+    }
+
+    @Test
+    public void shouldKeepUsersAcrossCleanRestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (UserLog userLog = open(directory)) {
+            userLog.put(newUser(1l, "Jane", 0l));
+            userLog.put(newUser(2l, "John", 0l));
+            userLog.delete(1l);
+        }
+        try (UserLog userLog = open(directory)) {
+            assertNull(userLog.get(1l));
+            assertEquals("John", userLog.get(2l).getName());
+            assertEquals(3l, userLog.nextId());
+        }
+    }
+
+    @Test
+    public void shouldRecoverFromTornRecordAfterCrash() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserLog crashed = open(directory);
+        crashed.put(newUser(1l, "Jane", 0l));
+        crashed.put(newUser(2l, "John", 0l));
+        // never closed, and the last record is cut in half
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve("users.log").toFile(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+
+        try (UserLog userLog = open(directory)) {
+            assertEquals("Jane", userLog.get(1l).getName());
+            assertNull(userLog.get(2l));
+            assertEquals(1, userLog.size());
+            userLog.put(newUser(2l, "Johnny", 0l));
+            assertEquals("Johnny", userLog.get(2l).getName());
+        }
+    }
+
+    @Test
+    public void shouldCompactDeadRecords() throws IOException {
+        try (UserLog userLog = open(folder.getRoot().toPath())) {
+            for (long version = 0; version < 100; version++) {
+                userLog.put(newUser(1l, "Jane " + version, version));
+            }
+            userLog.put(newUser(2l, "John", 0l));
+            long before = userLog.logLength();
+
+            userLog.compact();
+
+            assertTrue(userLog.logLength() < before / 10);
+            assertEquals("Jane 99", userLog.get(1l).getName());
+            assertEquals("John", userLog.get(2l).getName());
+        }
+    }
+
+    @Test
+    public void shouldNotReuseIdOfDeletedUserAfterCompactionAndCrash() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        UserLog crashed = open(directory);
+        crashed.put(newUser(crashed.nextId(), "Jane", 0l));
+        crashed.put(newUser(crashed.nextId(), "John", 0l));
+        crashed.put(newUser(crashed.nextId(), "Jim", 0l));
+        crashed.delete(3l);
+        crashed.compact();
+        // never closed, so the index is rebuilt from the compacted log
+
+        try (UserLog userLog = open(directory)) {
+            assertNull(userLog.get(3l));
+            assertEquals(2, userLog.size());
+            assertEquals(4l, userLog.nextId());
+        }
+    }
+
+    private static UserLog open(Path directory) throws IOException {
+        return new UserLog(directory, false, Long.MAX_VALUE);
+    }
+
+    private User newUser(Long id, String name, Long version) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setPhone("p" + id);
+        user.setVersion(version);
+        return user;
+    }
+}
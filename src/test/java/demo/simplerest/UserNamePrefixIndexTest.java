@@ -0,0 +1,64 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserNamePrefixIndex;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class UserNamePrefixIndexTest {
+    private final UserNamePrefixIndex userNameIndex = new UserNamePrefixIndex();
+
+    @Test
+    public void shouldFindByPrefixIgnoringCaseInNameOrder() {
+        userNameIndex.put(newUser(3l, "Anna"));
+        userNameIndex.put(newUser(1l, "annette"));
+        userNameIndex.put(newUser(2l, "Anna"));
+        userNameIndex.put(newUser(4l, "Bob"));
+
+        List<Long> ids = userNameIndex.findByPrefix("ANN", 0, 10).stream().map(User::getId).collect(Collectors.toList());
+        assertEquals(Arrays.asList(2l, 3l, 1l), ids);
+    }
+
+    @Test
+    public void shouldApplyOffsetAndLimit() {
+        for (long id = 1; id <= 5; id++) {
+            userNameIndex.put(newUser(id, "Same"));
+        }
+
+        List<User> users = userNameIndex.findByPrefix("same", 1, 2);
+        assertEquals(2, users.size());
+        assertEquals(Long.valueOf(2l), users.get(0).getId());
+        assertEquals(Long.valueOf(3l), users.get(1).getId());
+    }
+
+    @Test
+    public void shouldMoveUserOnRename() {
+        userNameIndex.put(newUser(1l, "Before"));
+        userNameIndex.put(newUser(1l, "After"));
+
+        assertTrue(userNameIndex.findByPrefix("be", 0, 10).isEmpty());
+        assertEquals(1, userNameIndex.findByPrefix("af", 0, 10).size());
+        assertEquals(1, userNameIndex.size());
+    }
+
+    @Test
+    public void shouldForgetRemovedUser() {
+        userNameIndex.put(newUser(1l, "Gone"));
+        userNameIndex.remove(1l);
+
+        assertTrue(userNameIndex.findByPrefix("g", 0, 10).isEmpty());
+        assertEquals(0, userNameIndex.size());
+    }
+
+    private User newUser(Long id, String name) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        return user;
+    }
+}
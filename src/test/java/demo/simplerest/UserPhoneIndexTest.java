@@ -0,0 +1,69 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserPhoneIndex;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UserPhoneIndexTest {
+    private final UserPhoneIndex userPhoneIndex = new UserPhoneIndex();
+
+    @Test
+    public void shouldRejectPhoneReservedByAnotherOwner() {
+        long first = userPhoneIndex.newReservation();
+        long second = userPhoneIndex.newReservation();
+
+        assertTrue(userPhoneIndex.reserve("100", first));
+        assertTrue(userPhoneIndex.reserve("100", first));
+        assertFalse(userPhoneIndex.reserve("100", second));
+    }
+
+    @Test
+    public void shouldFreePhoneOnRelease() {
+        long reservation = userPhoneIndex.newReservation();
+        userPhoneIndex.reserve("100", reservation);
+        userPhoneIndex.release("100", reservation);
+
+        assertNull(userPhoneIndex.ownerOf("100"));
+        assertTrue(userPhoneIndex.reserve("100", userPhoneIndex.newReservation()));
+    }
+
+    @Test
+    public void shouldKeepConfirmedPhoneOnRelease() {
+        long reservation = userPhoneIndex.newReservation();
+        userPhoneIndex.reserve("100", reservation);
+        userPhoneIndex.put(newUser(1l, "100"));
+        userPhoneIndex.release("100", reservation);
+        userPhoneIndex.release("100", 1l);
+
+        assertEquals(Long.valueOf(1l), userPhoneIndex.ownerOf("100"));
+    }
+
+    @Test
+    public void shouldFreeOldPhoneOnChange() {
+        userPhoneIndex.put(newUser(1l, "100"));
+        userPhoneIndex.put(newUser(1l, "200"));
+
+        assertNull(userPhoneIndex.ownerOf("100"));
+        assertEquals(Long.valueOf(1l), userPhoneIndex.ownerOf("200"));
+        assertEquals(1, userPhoneIndex.size());
+    }
+
+    @Test
+    public void shouldForgetRemovedUser() {
+        userPhoneIndex.put(newUser(1l, "100"));
+        userPhoneIndex.remove(1l);
+
+        assertNull(userPhoneIndex.ownerOf("100"));
+        assertEquals(0, userPhoneIndex.size());
+    }
+
+    private User newUser(Long id, String phone) {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        user.setPhone(phone);
+        return user;
+    }
+}
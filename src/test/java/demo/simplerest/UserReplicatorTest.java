@@ -0,0 +1,47 @@
+package demo.simplerest;
+
+import demo.simplerest.replica.UserReplicator;
+import demo.simplerest.services.UserChangeFeed;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class UserReplicatorTest {
+    private UserChangeFeed userChangeFeed;
+    private UserReplicator userReplicator;
+
+    @Before
+    public void setUp() {
+        DriverManagerDataSource primary = new DriverManagerDataSource("jdbc:h2:mem:replicator-primary;DB_CLOSE_DELAY=-1");
+        new JdbcTemplate(primary).execute("create table if not exists user (id bigint primary key, " +
+                "name varchar(255) not null, name_lower varchar(255) not null, phone varchar(255), version bigint)");
+        userChangeFeed = new UserChangeFeed(100);
+        userReplicator = new UserReplicator(userChangeFeed, primary,
+                new DriverManagerDataSource("jdbc:h2:mem:replicator-replica;DB_CLOSE_DELAY=-1"), 50, TimeUnit.MILLISECONDS);
+        userReplicator.start();
+    }
+
+    @After
+    public void tearDown() {
+        userReplicator.stop();
+    }
+
+    @Test
+    public void shouldKeepServingWhileIdlePastMaxStaleness() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!userReplicator.canServe(userChangeFeed.lastSequence()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(userReplicator.canServe(userChangeFeed.lastSequence()));
+
+        // no writes, so nothing drains and the last catch-up is older than max staleness
+        Thread.sleep(200);
+        assertTrue(userReplicator.canServe(userChangeFeed.lastSequence()));
+    }
+}
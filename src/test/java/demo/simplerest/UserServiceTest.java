@@ -1,15 +1,23 @@
 package demo.simplerest;
 
 import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+import demo.simplerest.services.UserChange;
+import demo.simplerest.services.UserChangeFeed;
 import demo.simplerest.services.UserService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -19,6 +27,22 @@ public class UserServiceTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Test
+    public void shouldReportOnlyExistingUsersRemovedInBatch() throws InvalidDataException {
+        User user = userService.create(newUser("Batch removed", "8600001"));
+        long before = userChangeFeed.lastSequence();
+
+        assertEquals(1, userService.removeAll(Arrays.asList(user.getId(), 990004l)));
+
+        List<UserChange> changes = userChangeFeed.readAfter(before, 100);
+        assertEquals(1, changes.size());
+        assertEquals(UserChange.Type.DELETED, changes.get(0).getType());
+        assertEquals(user.getId().longValue(), changes.get(0).getUserId());
+    }
+
     @Test
     public void shouldCreateUser() throws InvalidDataException {
         User user = newUser("Jane", "123");
@@ -75,6 +99,40 @@ public class UserServiceTest {
         assertNotEquals(initialName, updatedUser.getName());
     }
 
+    @Test
+    public void shouldIncrementVersionOnConditionalUpdate() throws InvalidDataException {
+        User savedUser = userService.create(newUser("Versioned", "7800001"));
+        Long version = savedUser.getVersion();
+        savedUser.setName("Versioned Again");
+
+        User updatedUser = userService.update(savedUser);
+        assertEquals(Long.valueOf(version + 1), updatedUser.getVersion());
+        assertEquals(updatedUser.getVersion(), userService.findById(savedUser.getId()).getVersion());
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void shouldRejectUpdateWithStaleVersion() throws InvalidDataException {
+        User savedUser = userService.create(newUser("Stale", "7800002"));
+        User staleUser = newUser("Stale Again", "7800002");
+        staleUser.setId(savedUser.getId());
+        staleUser.setVersion(savedUser.getVersion() + 5);
+        userService.update(staleUser);
+    }
+
+    @Test
+    public void shouldReturnNullOnUpdateOfNotExistedUser() throws InvalidDataException {
+        User user = newUser("Nobody", "7800003");
+        user.setId(Long.MAX_VALUE);
+        assertNull(userService.update(user));
+    }
+
+    @Test
+    public void shouldRemoveUserIfExists() throws InvalidDataException {
+        User savedUser = userService.create(newUser("Removable", "7800004"));
+        assertTrue(userService.remove(savedUser.getId(), savedUser.getVersion()));
+        assertFalse(userService.remove(savedUser.getId(), null));
+    }
+
     @Test(expected = InvalidDataException.class)
     public void shouldNotAllowCreateUserWithDuplicatedPhones() throws InvalidDataException {
         final String phone = "2233";
@@ -85,6 +143,22 @@ public class UserServiceTest {
         userService.create(user2);
     }
 
+    @Test
+    public void shouldReportEveryInvalidFieldWithoutStackTrace() {
+        char[] longPhone = new char[300];
+        Arrays.fill(longPhone, '1');
+        try {
+            userService.create(newUser(" ", new String(longPhone)));
+            fail();
+        } catch (InvalidDataException e) {
+            assertEquals(2, e.getErrors().size());
+            assertEquals("name", e.getErrors().get(0).getField());
+            assertEquals("User name is mandatory", e.getMessage());
+            assertEquals("phone", e.getErrors().get(1).getField());
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
     @Test
     public void shouldCreateUserWithoutPhone() throws InvalidDataException {
         User user1 = newUser("Mary", null);
@@ -127,6 +201,49 @@ public class UserServiceTest {
         assertTrue(countOfJustSaved == 3);
     }
 
+    @Test
+    public void shouldFindPageOfUsersAfterId() throws InvalidDataException {
+        User savedUser1 = userService.create(newUser("Paged1", "7000001"));
+        User savedUser2 = userService.create(newUser("Paged2", "7000002"));
+        userService.create(newUser("Paged3", "7000003"));
+
+        List<User> page = userService.findPage(savedUser1.getId(), 1);
+        assertEquals(1, page.size());
+        assertEquals(savedUser2.getId(), page.get(0).getId());
+    }
+
+    @Test
+    public void shouldFindSelectedColumnsOfPage() throws InvalidDataException {
+        User savedUser1 = userService.create(newUser("Projected1", "7200001"));
+        User savedUser2 = userService.create(newUser("Projected2", "7200002"));
+
+        List<Object[]> page = userService.findPage(savedUser1.getId(), 1, Arrays.asList(UserField.NAME, UserField.ID));
+        assertEquals(1, page.size());
+        assertArrayEquals(new Object[]{"Projected2", savedUser2.getId()}, page.get(0));
+    }
+
+    @Test
+    public void shouldFindSingleSelectedColumnByName() throws InvalidDataException {
+        userService.create(newUser("Projected Name", "7200003"));
+
+        List<Object[]> found = userService.findByName("projected n", 0, 10, Arrays.asList(UserField.PHONE));
+        assertEquals(1, found.size());
+        assertArrayEquals(new Object[]{"7200003"}, found.get(0));
+    }
+
+    @Test
+    public void shouldStreamAllUsersOrderedById() throws InvalidDataException {
+        userService.create(newUser("Streamed1", "7100001"));
+        userService.create(newUser("Streamed2", "7100002"));
+
+        List<Long> ids = new ArrayList<>();
+        userService.forEach(user -> ids.add(user.getId()));
+        assertEquals(userService.findAll().size(), ids.size());
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1) < ids.get(i));
+        }
+    }
+
     @Test
     public void shouldFindUserById() throws InvalidDataException {
         User savedUser = userService.create(newUser("Mikky Rurke", "54412345"));
@@ -170,6 +287,38 @@ public class UserServiceTest {
         assertTrue(foundUsers.isEmpty());
     }
 
+    @Test
+    public void shouldFindUsersByNamePageOrderedByName() throws InvalidDataException {
+        userService.create(newUser("Prefixed b", "7900001"));
+        userService.create(newUser("prefixed A", "7900002"));
+        userService.create(newUser("Prefixed c", "7900003"));
+
+        List<User> foundUsers = userService.findByName("PREFIXED", 1, 1);
+        assertEquals(1, foundUsers.size());
+        assertEquals("Prefixed b", foundUsers.get(0).getName());
+    }
+
+    @Test
+    public void shouldTreatLikeWildcardsInNameLiterally() throws InvalidDataException {
+        userService.create(newUser("Wild_card", "7900004"));
+        userService.create(newUser("Wildcard", "7900005"));
+
+        List<User> foundUsers = userService.findByName("wild_");
+        assertEquals(1, foundUsers.size());
+        assertEquals("Wild_card", foundUsers.get(0).getName());
+        assertTrue(userService.findByName("%").isEmpty());
+    }
+
+    @Test
+    public void shouldFindUserByUpdatedName() throws InvalidDataException {
+        User savedUser = userService.create(newUser("Renamed Before", "7900006"));
+        savedUser.setName("Renamed After");
+        userService.update(savedUser);
+
+        assertTrue(userService.findByName("renamed before").isEmpty());
+        assertEquals(1, userService.findByName("renamed after").size());
+    }
+
     @Test
     public void shouldDeleteExistedUser() throws InvalidDataException {
         String name = "Met Leblanc";
@@ -179,6 +328,79 @@ public class UserServiceTest {
         assertTrue(foundUsers.isEmpty());
     }
 
+    @Test
+    public void shouldCreateUsersInBatch() throws InvalidDataException {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            users.add(newUser("Batch" + i, "72000" + i));
+        }
+        List<User> savedUsers = userService.createAll(users);
+
+        assertEquals(120, savedUsers.size());
+        savedUsers.forEach(user -> assertNotNull(user.getId()));
+        assertEquals("Batch119", userService.findById(savedUsers.get(119).getId()).getName());
+    }
+
+    @Test
+    public void shouldRejectWholeBatchWithDuplicatedPhones() {
+        List<User> users = Arrays.asList(newUser("Dup1", "7300001"), newUser("Dup2", "7300001"));
+        try {
+            userService.createAll(users);
+            fail();
+        } catch (InvalidDataException e) {
+            assertTrue(userService.findByName("Dup").isEmpty());
+        }
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void shouldRejectBatchWithPhoneOfExistingUser() throws InvalidDataException {
+        userService.create(newUser("Existing", "7400001"));
+        userService.createAll(Arrays.asList(newUser("Newcomer", "7400001")));
+    }
+
+    @Test
+    public void shouldUpdateUsersInBatch() throws InvalidDataException {
+        List<User> savedUsers = userService.createAll(Arrays.asList(newUser("Before1", "7500001"), newUser("Before2", "7500002")));
+        savedUsers.get(0).setName("After1");
+        savedUsers.get(1).setName("After2");
+        userService.updateAll(savedUsers);
+
+        assertEquals("After1", userService.findById(savedUsers.get(0).getId()).getName());
+        assertEquals("After2", userService.findById(savedUsers.get(1).getId()).getName());
+    }
+
+    @Test(expected = InvalidDataException.class)
+    public void shouldRejectBatchUpdateOfNotExistedUser() throws InvalidDataException {
+        User user = newUser("Ghost", "7600001");
+        user.setId(Long.MAX_VALUE);
+        userService.updateAll(Arrays.asList(user));
+    }
+
+    @Test
+    public void shouldDeleteUsersInBatch() throws InvalidDataException {
+        List<User> savedUsers = userService.createAll(Arrays.asList(newUser("Gone1", "7700001"), newUser("Gone2", "7700002")));
+        int removed = userService.removeAll(Arrays.asList(savedUsers.get(0).getId(), savedUsers.get(1).getId(), Long.MAX_VALUE));
+
+        assertEquals(2, removed);
+        assertNull(userService.findById(savedUsers.get(0).getId()));
+        assertNull(userService.findById(savedUsers.get(1).getId()));
+    }
+
+    @Test
+    public void shouldImportValidUsersAndReportTheRest() throws InvalidDataException {
+        userService.create(newUser("Existing", "8800001"));
+        List<User> users = Arrays.asList(newUser("Imported1", "8800002"), newUser(" ", "8800003"),
+                newUser("Imported2", "8800001"), newUser("Imported3", "8800004"), newUser("Imported4", "8800004"));
+
+        Map<Integer, String> errors = userService.importAll(users);
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 4)), errors.keySet());
+        assertEquals("User name is mandatory", errors.get(1));
+        assertNotNull(userService.findByPhone("8800002"));
+        assertEquals("Imported3", userService.findByPhone("8800004").getName());
+        assertNull(users.get(2).getId());
+    }
+
     @Test(expected = DataAccessException.class)
     public void shouldDeleteNotExistedUser() {
         userService.remove(150l);
@@ -0,0 +1,217 @@
+package demo.simplerest;
+
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserService;
+import demo.simplerest.services.UserWriteBehind;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"users.cache.enabled=false", "users.write-behind.enabled=true",
+        "users.write-behind.directory=target/write-behind-test",
+        // flushes happen when the tests ask for them
+        "users.write-behind.flush-interval-ms=3600000",
+        // a single connection: a flush from inside a transaction would wait for a second one until the timeout
+        "spring.datasource.type=com.zaxxer.hikari.HikariDataSource", "spring.datasource.hikari.maximum-pool-size=1",
+        "spring.datasource.hikari.connection-timeout=2000",
+        "spring.datasource.url=jdbc:h2:mem:write-behind;DB_CLOSE_DELAY=-1"})
+public class WriteBehindTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserWriteBehind userWriteBehind;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void clearJournal() {
+        FileSystemUtils.deleteRecursively(new File("target/write-behind-test"));
+    }
+
+    @Test
+    public void shouldServeBufferedUpdateBeforeFlush() throws Exception {
+        User created = create("Buffered", "8400001");
+        created.setName("Buffered again");
+        User updated = userService.update(created);
+
+        assertEquals(Long.valueOf(1l), updated.getVersion());
+        assertEquals("Buffered", nameInDatabase(created.getId()));
+        assertEquals("Buffered again", userService.findById(created.getId()).getName());
+
+        userWriteBehind.flush();
+        assertEquals("Buffered again", nameInDatabase(created.getId()));
+        assertEquals(Long.valueOf(1l), versionInDatabase(created.getId()));
+    }
+
+    @Test
+    public void shouldWriteOnlyLatestOfCoalescedUpdates() throws Exception {
+        User created = create("Coalesced", "8400002");
+        for (int i = 1; i <= 3; i++) {
+            created.setVersion(null);
+            created.setPhone("84000" + (2 + i * 10));
+            userService.update(created);
+        }
+
+        assertEquals(Long.valueOf(3l), userService.findById(created.getId()).getVersion());
+        assertEquals("8400032", userService.findByPhone("8400032").getPhone());
+        assertNull(userService.findByPhone("8400002"));
+
+        userWriteBehind.flush();
+        assertEquals(0, userWriteBehind.size());
+        assertEquals(Long.valueOf(3l), versionInDatabase(created.getId()));
+        assertEquals(created.getId(), userService.findByPhone("8400032").getId());
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void shouldCheckVersionAgainstBufferedUpdate() throws Exception {
+        User created = create("Versioned", "8400003");
+        created.setName("Versioned again");
+        userService.update(created);
+
+        created.setVersion(0l);
+        userService.update(created);
+    }
+
+    @Test
+    public void shouldFlushBeforeQueriesAndDeletes() throws Exception {
+        User created = create("Searchable", "8400004");
+        created.setName("Searched by new name");
+        userService.update(created);
+
+        List<User> found = userService.findByName("Searched by new");
+        assertEquals(1, found.size());
+        assertEquals(created.getId(), found.get(0).getId());
+
+        created.setName("Deleted");
+        userService.update(created);
+        assertTrue(userService.remove(created.getId(), 2l));
+        assertNull(userService.findById(created.getId()));
+    }
+
+    @Test
+    public void shouldDropBufferedUpdateOfUserWrittenByConcurrentUpdateAll() throws Exception {
+        User created = create("Before updateAll", "8400006");
+        User readBeforeUpdateAll = User.copyOf(created);
+        User fromUpdateAll = User.copyOf(created);
+        fromUpdateAll.setName("From updateAll");
+        userService.updateAll(Collections.singletonList(fromUpdateAll));
+
+        // acknowledged against the version the user had before updateAll wrote it
+        User buffered = User.copyOf(created);
+        buffered.setName("From buffered update");
+        assertNotNull(userWriteBehind.update(buffered, id -> User.copyOf(readBeforeUpdateAll)));
+        assertEquals(Long.valueOf(1l), buffered.getVersion());
+
+        userWriteBehind.flush();
+        assertEquals(0, userWriteBehind.size());
+        assertEquals("From updateAll", nameInDatabase(created.getId()));
+        assertEquals(Long.valueOf(1l), versionInDatabase(created.getId()));
+    }
+
+    @Test
+    public void shouldFlushLaterUpdateOnTopOfFlushedOne() throws Exception {
+        User created = create("Flushed twice", "8400007");
+        created.setName("Flushed twice, first");
+        userService.update(created);
+        userWriteBehind.flush();
+
+        created.setName("Flushed twice, second");
+        userService.update(created);
+        userWriteBehind.flush();
+        assertEquals("Flushed twice, second", nameInDatabase(created.getId()));
+        assertEquals(Long.valueOf(2l), versionInDatabase(created.getId()));
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownUser() throws Exception {
+        User user = new User();
+        user.setId(990002l);
+        user.setName("Nobody");
+        assertNull(userService.update(user));
+        assertFalse(userWriteBehind.isBuffered(990002l));
+    }
+
+    @Test
+    public void shouldRecoverAcknowledgedUpdateAfterCrash() throws IOException {
+        DataSource crashDataSource = new DriverManagerDataSource("jdbc:h2:mem:write-behind-crash;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(crashDataSource);
+        jdbcTemplate.execute("create table user (id bigint primary key, name varchar(255) not null, " +
+                "name_lower varchar(255) not null, phone varchar(255) unique, version bigint)");
+        jdbcTemplate.update("insert into user values (1, 'Before crash', 'before crash', '8400005', 0)");
+        String directory = folder.getRoot().getPath();
+
+        UserWriteBehind crashed = new UserWriteBehind(crashDataSource, new DataSourceTransactionManager(crashDataSource),
+                directory, true, 3600000, 10000);
+        User user = new User();
+        user.setId(1l);
+        user.setName("After crash");
+        user.setPhone("8400005");
+        user.setVersion(0l);
+        assertNotNull(crashed.update(user, id -> load(jdbcTemplate, id)));
+        // acknowledged, then the process dies before any flush
+
+        UserWriteBehind restarted = new UserWriteBehind(crashDataSource, new DataSourceTransactionManager(crashDataSource),
+                directory, true, 3600000, 10000);
+        try {
+            assertEquals("After crash", restarted.get(1l).getName());
+            restarted.start();
+            assertEquals("After crash", jdbcTemplate.queryForObject("select name from user where id = 1", String.class));
+            assertEquals(Long.valueOf(1l), jdbcTemplate.queryForObject("select version from user where id = 1", Long.class));
+            assertEquals(0, restarted.size());
+        } finally {
+            restarted.shutdown();
+        }
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private User create(String name, String phone) throws Exception {
+        User user = new User();
+        user.setName(name);
+        user.setPhone(phone);
+        return userService.create(user);
+    }
+
+    private String nameInDatabase(long id) {
+        return new JdbcTemplate(dataSource).queryForObject("select name from user where id = ?", String.class, id);
+    }
+
+    private Long versionInDatabase(long id) {
+        return new JdbcTemplate(dataSource).queryForObject("select version from user where id = ?", Long.class, id);
+    }
+
+    private static User load(JdbcTemplate jdbcTemplate, long id) {
+        List<User> users = jdbcTemplate.query("select id, name, phone, version from user where id = ?", (rs, row) -> {
+            User user = new User();
+            user.setId(rs.getLong("id"));
+            user.setName(rs.getString("name"));
+            user.setPhone(rs.getString("phone"));
+            user.setVersion(rs.getLong("version"));
+            return user;
+        }, id);
+        return users.isEmpty() ? null : users.get(0);
+    }
+}
@@ -0,0 +1,112 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.SimpleRestApplication;
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end HTTP load on a running server with a deliberately small Tomcat pool, run with many more
+ * client threads than container threads (e.g. {@code -Djmh.threads=64,256}) to compare blocking
+ * handlers with the {@code users.async.enabled} mode at high connection counts.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dhttp.maxConnections=1024"})
+@State(Scope.Benchmark)
+public class AsyncRequestBenchmark {
+    private static final int TABLE_SIZE = 10000;
+    private static final AtomicLong THREAD_SEEDS = new AtomicLong();
+
+    @Param({"false", "true"})
+    public boolean asyncEnabled;
+
+    @Param({"16"})
+    public int containerThreads;
+
+    private ConfigurableApplicationContext context;
+    private String baseUrl;
+    private long[] ids;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random(THREAD_SEEDS.incrementAndGet());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidDataException {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .run("--server.port=0",
+                        "--server.tomcat.max-threads=" + containerThreads,
+                        "--server.tomcat.max-connections=10000",
+                        "--spring.datasource.url=jdbc:h2:mem:async-benchmark;DB_CLOSE_DELAY=-1",
+                        "--users.async.enabled=" + asyncEnabled,
+                        // measure the request path rather than the cache
+                        "--users.cache.enabled=false",
+                        "--logging.level.root=WARN");
+        int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+        baseUrl = "http://localhost:" + port + "/users";
+
+        UserService userService = context.getBean(UserService.class);
+        ids = new long[TABLE_SIZE];
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            User user = new User();
+            user.setName("User " + i);
+            user.setPhone("p" + i);
+            batch.add(user);
+            if (batch.size() == 1000 || i == TABLE_SIZE - 1) {
+                int first = i - batch.size() + 1;
+                List<User> created = userService.createAll(batch);
+                for (int j = 0; j < created.size(); j++) {
+                    ids[first + j] = created.get(j).getId();
+                }
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int findById(ThreadState state) throws IOException {
+        return get("/" + ids[state.random.nextInt(TABLE_SIZE)]);
+    }
+
+    @Benchmark
+    public int findByName(ThreadState state) throws IOException {
+        return get("/name/user%20" + (state.random.nextInt(999) + 1) + "?limit=20");
+    }
+
+    private int get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        int status = connection.getResponseCode();
+        // drain the body so the keep-alive connection goes back to the pool
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            while (body != null && body.read(buffer) != -1) {
+                // discard
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,49 @@
+package demo.simplerest.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks once per thread count from {@code -Djmh.threads} (unless {@code -t} is given)
+ * and keeps a JSON result per run under {@code target/jmh} for before/after comparisons.
+ * Any other argument is passed to JMH as is.
+ */
+public final class BenchmarkRunner {
+    private static final File RESULTS_DIR = new File("target/jmh");
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        List<Integer> threadCounts = commandLine.getThreads().hasValue()
+                ? Collections.singletonList(commandLine.getThreads().get())
+                : parseThreadCounts(System.getProperty("jmh.threads", "1"));
+        RESULTS_DIR.mkdirs();
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(RESULTS_DIR, "result-t" + threads + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    private static List<Integer> parseThreadCounts(String value) {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String threads : value.split(",")) {
+            threadCounts.add(Integer.parseInt(threads.trim()));
+        }
+        return threadCounts;
+    }
+}
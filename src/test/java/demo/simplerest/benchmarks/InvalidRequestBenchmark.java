@@ -0,0 +1,93 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.SimpleRestApplication;
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Throughput of rejected writes: a create without a name through the whole MVC stack, the same through the
+ * service alone, and the bare cost of raising the exception with and without a stack trace. Run it on the
+ * commit before stackless validation too to compare the request paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class InvalidRequestBenchmark {
+    private static final String INVALID_USER = "{\"phone\":\"1\"}";
+    private static final String INVALID_BATCH;
+
+    static {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            batch.append(i == 0 ? "" : ",").append(INVALID_USER);
+        }
+        INVALID_BATCH = batch.append("]").toString();
+    }
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:invalid-benchmark;DB_CLOSE_DELAY=-1",
+                        "--logging.level.root=WARN");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int invalidCreateRequest() throws Exception {
+        return mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(INVALID_USER))
+                .andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public int invalidBatchRequest() throws Exception {
+        return mockMvc.perform(post("/users/batch").contentType(MediaType.APPLICATION_JSON).content(INVALID_BATCH))
+                .andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public Object invalidCreate() {
+        User user = new User();
+        user.setPhone("1");
+        try {
+            return userService.create(user);
+        } catch (InvalidDataException e) {
+            return e.getErrors();
+        }
+    }
+
+    @Benchmark
+    public Exception exceptionWithStackTrace() {
+        return new Exception("User name is mandatory");
+    }
+
+    @Benchmark
+    public Exception stacklessException() {
+        return new InvalidDataException("name", "User name is mandatory");
+    }
+}
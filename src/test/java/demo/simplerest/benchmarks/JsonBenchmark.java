@@ -0,0 +1,98 @@
+package demo.simplerest.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.simplerest.entities.User;
+import demo.simplerest.json.UserJson;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of {@link User} responses, with the object mapper configured the way Spring Boot does it,
+ * against the direct {@link UserJson} path. Run with {@code -prof gc} to compare allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"100", "10000"})
+    public int listSize;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private User user;
+    private List<User> users;
+
+    @Setup
+    public void setUp() {
+        user = newUser(1);
+        users = new ArrayList<>();
+        for (int i = 0; i < listSize; i++) {
+            users.add(newUser(i));
+        }
+    }
+
+    @Benchmark
+    public void serializeUser() throws IOException {
+        objectMapper.writeValue(DISCARD, user);
+    }
+
+    @Benchmark
+    public void serializeList() throws IOException {
+        objectMapper.writeValue(DISCARD, users);
+    }
+
+    @Benchmark
+    public void serializeListStreaming() throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(DISCARD)) {
+            generator.writeStartArray();
+            for (User item : users) {
+                generator.writeObject(item);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    @Benchmark
+    public void serializeUserDirect() throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(DISCARD)) {
+            UserJson.write(generator, user);
+        }
+    }
+
+    @Benchmark
+    public void serializeListDirect() throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(DISCARD)) {
+            UserJson.writeAll(generator, users);
+        }
+    }
+
+    private static User newUser(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        user.setPhone("+1 555 " + id);
+        user.setVersion(0L);
+        return user;
+    }
+}
@@ -0,0 +1,83 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.SimpleRestApplication;
+import demo.simplerest.entities.User;
+import demo.simplerest.repositories.UserField;
+import demo.simplerest.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Large pages and name searches as whole entities against the {@code id,name} projection. Run with
+ * {@code -prof gc} to compare the allocation per read next to the latency.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+    private static final int TABLE_SIZE = 100000;
+    private static final List<UserField> ID_AND_NAME = Arrays.asList(UserField.ID, UserField.NAME);
+
+    @Param({"1000"})
+    public int resultSize;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidDataException {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .web(false)
+                .run("--spring.datasource.url=jdbc:h2:mem:projection-benchmark;DB_CLOSE_DELAY=-1",
+                        "--users.cache.enabled=false",
+                        "--logging.level.root=WARN");
+        userService = context.getBean(UserService.class);
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            User user = new User();
+            // every name shares the prefix, so a search can return as many rows as a page
+            user.setName("User " + i);
+            user.setPhone("p" + i);
+            batch.add(user);
+            if (batch.size() == 1000) {
+                userService.createAll(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<User> findPageEntities() {
+        return userService.findPage(0, resultSize);
+    }
+
+    @Benchmark
+    public List<Object[]> findPageProjected() {
+        return userService.findPage(0, resultSize, ID_AND_NAME);
+    }
+
+    @Benchmark
+    public List<User> findByNameEntities() {
+        return userService.findByName("user", 0, resultSize);
+    }
+
+    @Benchmark
+    public List<Object[]> findByNameProjected() {
+        return userService.findByName("user", 0, resultSize, ID_AND_NAME);
+    }
+}
@@ -0,0 +1,47 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.SimpleRestApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to a started web server in a fresh JVM, default boot against the {@code fast-startup} profile.
+ * Resident memory after startup is printed per fork ({@code VmRSS}, Linux only).
+ * Add {@code -XX:SharedArchiveFile=target/app-cds.jsa} to the fork arguments to measure the CDS archive as well.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = {"-Xms256m", "-Xmx256m"})
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    @Param({"default", "fast-startup"})
+    public String profile;
+
+    private ConfigurableApplicationContext context;
+
+    @Benchmark
+    public ConfigurableApplicationContext start() {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .profiles(profile)
+                .run("--server.port=0", "--logging.level.root=WARN");
+        return context;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("VmRSS")) {
+                System.out.println("profile=" + profile + " " + line.replaceAll("\\s+", " "));
+            }
+        }
+        context.close();
+    }
+}
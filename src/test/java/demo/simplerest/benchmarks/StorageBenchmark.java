@@ -0,0 +1,94 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.SimpleRestApplication;
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Point lookups and inserts through the JPA store, the {@code file-store} log and the {@code sharded} databases,
+ * all without the cache in front. Run with several threads to see the sharded write path scale.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+    private static final AtomicLong THREAD_SEEDS = new AtomicLong();
+
+    @Param({"100000"})
+    public int tableSize;
+
+    @Param({"jpa", "file-store", "sharded"})
+    public String store;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long[] ids;
+    private final AtomicLong createdPhones = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random(THREAD_SEEDS.incrementAndGet());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidDataException, IOException {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .web(false)
+                .profiles(store)
+                .run("--spring.datasource.url=jdbc:h2:mem:storage-benchmark;DB_CLOSE_DELAY=-1",
+                        "--users.file-store.directory=" + Files.createTempDirectory("users"),
+                        "--users.cache.enabled=false",
+                        "--logging.level.root=WARN");
+        userService = context.getBean(UserService.class);
+
+        ids = new long[tableSize];
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < tableSize; i++) {
+            User user = new User();
+            user.setName("User " + i);
+            user.setPhone("p" + i);
+            batch.add(user);
+            if (batch.size() == 1000 || i == tableSize - 1) {
+                int first = i - batch.size() + 1;
+                List<User> created = userService.createAll(batch);
+                for (int j = 0; j < created.size(); j++) {
+                    ids[first + j] = created.get(j).getId();
+                }
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public User findById(ThreadState state) {
+        return userService.findById(ids[state.random.nextInt(tableSize)]);
+    }
+
+    @Benchmark
+    public User create() throws InvalidDataException {
+        User user = new User();
+        user.setName("Created");
+        user.setPhone("c" + createdPhones.incrementAndGet());
+        return userService.create(user);
+    }
+}
@@ -0,0 +1,107 @@
+package demo.simplerest.benchmarks;
+
+import demo.simplerest.InvalidDataException;
+import demo.simplerest.SimpleRestApplication;
+import demo.simplerest.entities.User;
+import demo.simplerest.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserService} hot paths against an in-memory H2 database pre-filled with {@code tableSize} users.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+    private static final AtomicLong THREAD_SEEDS = new AtomicLong();
+
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long[] ids;
+    private final AtomicLong createdPhones = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        // seeded by thread start order so every run walks the same keys
+        final Random random = new Random(THREAD_SEEDS.incrementAndGet());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidDataException {
+        context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                .web(false)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "--users.cache.enabled=" + cacheEnabled,
+                        "--logging.level.root=WARN");
+        userService = context.getBean(UserService.class);
+
+        ids = new long[tableSize];
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < tableSize; i++) {
+            batch.add(newUser(i));
+            if (batch.size() == 1000 || i == tableSize - 1) {
+                int first = i - batch.size() + 1;
+                List<User> created = userService.createAll(batch);
+                for (int j = 0; j < created.size(); j++) {
+                    ids[first + j] = created.get(j).getId();
+                }
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public User findById(ThreadState state) {
+        return userService.findById(ids[state.random.nextInt(tableSize)]);
+    }
+
+    @Benchmark
+    public List<User> findByName(ThreadState state) {
+        return userService.findByName("User " + (state.random.nextInt(999) + 1), 0, 20);
+    }
+
+    @Benchmark
+    public User create() throws InvalidDataException {
+        User user = new User();
+        user.setName("Created");
+        user.setPhone("c" + createdPhones.incrementAndGet());
+        return userService.create(user);
+    }
+
+    @Benchmark
+    public User update(ThreadState state) throws InvalidDataException {
+        int index = state.random.nextInt(tableSize);
+        User user = newUser(index);
+        user.setId(ids[index]);
+        return userService.update(user);
+    }
+
+    private static User newUser(int index) {
+        User user = new User();
+        user.setName("User " + index);
+        user.setPhone("p" + index);
+        return user;
+    }
+}
@@ -0,0 +1,166 @@
+package demo.simplerest.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and error counts per {@link Workload.Operation}, and the SLO check over them.
+ * Latencies are recorded in microseconds from the intended start of each request, not from when a client
+ * thread got around to sending it, so a stalled server shows up in the percentiles instead of hiding in them.
+ */
+class LatencyReport {
+    static final String ALL = "all";
+
+    private final Map<Workload.Operation, Histogram> histograms = new EnumMap<>(Workload.Operation.class);
+    private final Map<Workload.Operation, LongAdder> errors = new EnumMap<>(Workload.Operation.class);
+    private final Histogram all = new ConcurrentHistogram(3);
+    private final LongAdder allErrors = new LongAdder();
+    private volatile long startedAt;
+    private volatile long stoppedAt;
+
+    LatencyReport() {
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            histograms.put(operation, new ConcurrentHistogram(3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    void start() {
+        startedAt = System.nanoTime();
+    }
+
+    void stop() {
+        stoppedAt = System.nanoTime();
+    }
+
+    void record(Workload.Operation operation, long latencyNanos, boolean failed) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        histograms.get(operation).recordValue(micros);
+        all.recordValue(micros);
+        if (failed) {
+            errors.get(operation).increment();
+            allErrors.increment();
+        }
+    }
+
+    void print(PrintStream out) {
+        double seconds = (stoppedAt - startedAt) / 1e9;
+        out.printf("%-8s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            if (histograms.get(operation).getTotalCount() > 0) {
+                printRow(out, operation.key(), histograms.get(operation), errors.get(operation).sum(), seconds);
+            }
+        }
+        printRow(out, ALL, all, allErrors.sum(), seconds);
+    }
+
+    /**
+     * Checks every objective and prints one line per objective. Returns the objectives that were missed.
+     */
+    List<Slo> check(List<Slo> slos, PrintStream out) {
+        List<Slo> missed = new ArrayList<>();
+        for (Slo slo : slos) {
+            double actual = slo.isErrorRate() ? errorRate(slo.operation) : percentileMillis(slo.operation, slo.percentile);
+            boolean met = actual <= slo.threshold;
+            out.printf("SLO %-20s %10.3f <= %-10.3f %s%n", slo, actual, slo.threshold, met ? "OK" : "MISSED");
+            if (!met) {
+                missed.add(slo);
+            }
+        }
+        return missed;
+    }
+
+    private void printRow(PrintStream out, String name, Histogram histogram, long errorCount, double seconds) {
+        out.printf("%-8s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getTotalCount(), errorCount,
+                histogram.getTotalCount() / seconds, millis(histogram, 50), millis(histogram, 90), millis(histogram, 99),
+                millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+    }
+
+    private double percentileMillis(String operation, double percentile) {
+        return millis(histogramOf(operation), percentile);
+    }
+
+    private double errorRate(String operation) {
+        Histogram histogram = histogramOf(operation);
+        long count = histogram.getTotalCount();
+        long errorCount = ALL.equals(operation) ? allErrors.sum() : errors.get(Workload.Operation.of(operation)).sum();
+        return count == 0 ? 0 : 100.0 * errorCount / count;
+    }
+
+    private Histogram histogramOf(String operation) {
+        return ALL.equals(operation) ? all : histograms.get(Workload.Operation.of(operation));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * One objective: {@code <op>.p<percentile>=<n>ms} for latency, {@code <op>.errors=<n>%} for the error rate,
+     * where {@code <op>} is an operation or {@value LatencyReport#ALL}.
+     */
+    static class Slo {
+        final String operation;
+        // NaN for an error rate objective
+        final double percentile;
+        final double threshold;
+        private final String text;
+
+        private Slo(String operation, double percentile, double threshold, String text) {
+            this.operation = operation;
+            this.percentile = percentile;
+            this.threshold = threshold;
+            this.text = text;
+        }
+
+        boolean isErrorRate() {
+            return Double.isNaN(percentile);
+        }
+
+        static List<Slo> parseAll(String value) {
+            List<Slo> slos = new ArrayList<>();
+            for (String slo : value.split(",")) {
+                if (!slo.trim().isEmpty()) {
+                    slos.add(parse(slo.trim()));
+                }
+            }
+            return slos;
+        }
+
+        static Slo parse(String value) {
+            String[] keyAndThreshold = value.split("=");
+            String[] operationAndMetric = keyAndThreshold.length == 2 ? keyAndThreshold[0].split("\\.", 2) : new String[0];
+            if (operationAndMetric.length != 2) {
+                throw new IllegalArgumentException("Expected <op>.p<percentile>=<n>ms or <op>.errors=<n>%: " + value);
+            }
+            String operation = operationAndMetric[0];
+            if (!ALL.equals(operation)) {
+                Workload.Operation.of(operation);
+            }
+            String metric = operationAndMetric[1];
+            String threshold = keyAndThreshold[1];
+            if (metric.equals("errors") && threshold.endsWith("%")) {
+                return new Slo(operation, Double.NaN, Double.parseDouble(threshold.substring(0, threshold.length() - 1)), value);
+            }
+            if (metric.startsWith("p") && threshold.endsWith("ms")) {
+                return new Slo(operation, Double.parseDouble(metric.substring(1)),
+                        Double.parseDouble(threshold.substring(0, threshold.length() - 2)), value);
+            }
+            throw new IllegalArgumentException("Expected <op>.p<percentile>=<n>ms or <op>.errors=<n>%: " + value);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package demo.simplerest.loadtest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyReportTest {
+
+    @Test
+    public void shouldParseLatencyAndErrorRateObjectives() {
+        List<LatencyReport.Slo> slos = LatencyReport.Slo.parseAll("all.p99=50ms, get.p99.9=100ms,,all.errors=0.1%");
+
+        assertEquals(3, slos.size());
+        assertEquals("all", slos.get(0).operation);
+        assertEquals(99, slos.get(0).percentile, 0);
+        assertEquals(50, slos.get(0).threshold, 0);
+        assertEquals("get", slos.get(1).operation);
+        assertEquals(99.9, slos.get(1).percentile, 0);
+        assertFalse(slos.get(1).isErrorRate());
+        assertTrue(slos.get(2).isErrorRate());
+        assertEquals(0.1, slos.get(2).threshold, 0);
+        assertEquals("get.p99.9=100ms", slos.get(1).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectObjectiveWithoutUnit() {
+        LatencyReport.Slo.parse("all.p99=50");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownOperation() {
+        LatencyReport.Slo.parse("login.p99=50ms");
+    }
+
+    @Test
+    public void shouldReportMissedObjectives() throws Exception {
+        LatencyReport report = new LatencyReport();
+        report.start();
+        for (int i = 1; i <= 100; i++) {
+            report.record(Workload.Operation.GET, TimeUnit.MILLISECONDS.toNanos(i), i > 98);
+        }
+        report.stop();
+
+        List<LatencyReport.Slo> slos = LatencyReport.Slo.parseAll(
+                "get.p50=60ms,get.p99=50ms,all.errors=5%,get.errors=1%,create.p99=1ms");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<LatencyReport.Slo> missed = report.check(slos, new PrintStream(out, true, "UTF-8"));
+
+        assertEquals(2, missed.size());
+        assertEquals("get.p99=50ms", missed.get(0).toString());
+        assertEquals("get.errors=1%", missed.get(1).toString());
+        assertEquals(5, out.toString("UTF-8").split("\n").length);
+    }
+}
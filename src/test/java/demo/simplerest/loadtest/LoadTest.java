@@ -0,0 +1,186 @@
+package demo.simplerest.loadtest;
+
+import demo.simplerest.SimpleRestApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the users API. Requests are scheduled at a fixed arrival rate whatever the
+ * server does, and each latency is taken from the scheduled start, so queueing behind a slow response counts
+ * against the server (no coordinated omission). Prints throughput and percentiles per operation, writes them
+ * to {@code target/loadtest}, and fails when an SLO is missed.
+ * <p>
+ * Settings are system properties:
+ * <ul>
+ * <li>{@code load.url} - the app to test, e.g. {@code http://localhost:8080}; without it the app is started
+ * in-process on a random port with an in-memory database</li>
+ * <li>{@code load.rate} - requests per second, default 500</li>
+ * <li>{@code load.duration-seconds} and {@code load.warmup-seconds} - measured and unmeasured run time</li>
+ * <li>{@code load.mix} - operation weights, default {@code get=60,search=20,create=10,update=8,delete=2}</li>
+ * <li>{@code load.users} - users seeded before the run, default 10000</li>
+ * <li>{@code load.threads} - client threads, default 64</li>
+ * <li>{@code load.arrivals} - {@code poisson} (default) or {@code uniform} gaps between requests</li>
+ * <li>{@code load.slo} - objectives, e.g. {@code all.p99=50ms,get.p99.9=100ms,all.errors=0.1%}</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("load.rate", 500);
+        int durationSeconds = Integer.getInteger("load.duration-seconds", 60);
+        int warmupSeconds = Integer.getInteger("load.warmup-seconds", 10);
+        int users = Integer.getInteger("load.users", 10000);
+        int threads = Integer.getInteger("load.threads", 64);
+        boolean poisson = !"uniform".equals(System.getProperty("load.arrivals", "poisson"));
+        String mix = System.getProperty("load.mix", "get=60,search=20,create=10,update=8,delete=2");
+        List<LatencyReport.Slo> slos = LatencyReport.Slo.parseAll(System.getProperty("load.slo", ""));
+
+        String url = System.getProperty("load.url");
+        ConfigurableApplicationContext context = null;
+        if (url == null) {
+            context = new SpringApplicationBuilder(SimpleRestApplication.class)
+                    .run("--server.port=0",
+                            "--spring.datasource.url=jdbc:h2:mem:load-test;DB_CLOSE_DELAY=-1",
+                            "--logging.level.root=WARN");
+            url = "http://localhost:" + ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+        }
+        // keep-alive connections per client thread, as a real client pool would
+        System.setProperty("http.maxConnections", Integer.toString(threads));
+
+        List<LatencyReport.Slo> missed;
+        try {
+            Workload workload = new Workload(url + "/users", mix);
+            workload.seed(users);
+            LatencyReport report = run(workload, rate, warmupSeconds, durationSeconds, threads, poisson);
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, true, "UTF-8");
+            out.printf("rate=%d/s duration=%ds warmup=%ds arrivals=%s threads=%d users=%d mix=%s%n", rate,
+                    durationSeconds, warmupSeconds, poisson ? "poisson" : "uniform", threads, users, mix);
+            report.print(out);
+            missed = report.check(slos, out);
+            String text = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            System.out.print(text);
+            write(text);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+        if (!missed.isEmpty()) {
+            // fails the Maven build when run from the loadtest profile, and exits with 1 otherwise
+            throw new IllegalStateException("Missed SLOs " + missed);
+        }
+    }
+
+    /**
+     * Issues requests on schedule from a single thread and hands them to the client pool. Requests scheduled
+     * during the warmup are sent but not recorded.
+     */
+    static LatencyReport run(Workload workload, int rate, int warmupSeconds, int durationSeconds, int threads,
+                             boolean poisson) throws InterruptedException {
+        LatencyReport report = new LatencyReport();
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        double meanGapNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        double intended = start;
+        boolean measuring = false;
+        Set<Request> open = ConcurrentHashMap.newKeySet();
+        while (intended < end) {
+            long scheduledAt = (long) intended;
+            if (!measuring && scheduledAt >= measureFrom) {
+                measuring = true;
+                report.start();
+            }
+            long wait;
+            while ((wait = scheduledAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            clients.execute(new Request(workload, workload.next(), scheduledAt, measuring ? report : null, open));
+            intended += poisson ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos : meanGapNanos;
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(1, TimeUnit.MINUTES)) {
+            // an overloaded server left requests queued or unanswered, they count as errors
+            clients.shutdownNow();
+            int abandoned = 0;
+            for (Request request : open) {
+                if (request.finish(true)) {
+                    abandoned++;
+                }
+            }
+            System.out.printf("%d requests unfinished a minute after the run were recorded as errors%n", abandoned);
+        }
+        report.stop();
+        return report;
+    }
+
+    /**
+     * One scheduled request. It is recorded once, by its response or by the end of the run, whichever comes
+     * first, so a response arriving after the run never records into a report that is already printed.
+     */
+    private static class Request implements Runnable {
+        private final Workload workload;
+        private final Workload.Operation operation;
+        private final long scheduledAt;
+        // null during the warmup
+        private final LatencyReport report;
+        private final Set<Request> open;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Request(Workload workload, Workload.Operation operation, long scheduledAt, LatencyReport report,
+                Set<Request> open) {
+            this.workload = workload;
+            this.operation = operation;
+            this.scheduledAt = scheduledAt;
+            this.report = report;
+            this.open = open;
+            if (report != null) {
+                open.add(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            finish(workload.execute(operation));
+        }
+
+        boolean finish(boolean failed) {
+            if (report == null || !finished.compareAndSet(false, true)) {
+                return false;
+            }
+            report.record(operation, System.nanoTime() - scheduledAt, failed);
+            open.remove(this);
+            return true;
+        }
+    }
+
+    private static void write(String report) throws IOException {
+        Path directory = Paths.get("target", "loadtest");
+        Files.createDirectories(directory);
+        String name = "report-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".txt";
+        Files.write(directory.resolve(name), report.getBytes(StandardCharsets.UTF_8));
+    }
+}
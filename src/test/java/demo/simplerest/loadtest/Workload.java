@@ -0,0 +1,188 @@
+package demo.simplerest.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The requests of a load test, picked at random by weight from a mix such as
+ * {@code get=60,search=20,create=10,update=8,delete=2}. Reads and updates go to a set of seeded users;
+ * deletes take users this run created, so the seed stays intact.
+ */
+class Workload {
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    enum Operation {
+        GET, SEARCH, CREATE, UPDATE, DELETE;
+
+        String key() {
+            return name().toLowerCase();
+        }
+
+        static Operation of(String key) {
+            for (Operation operation : values()) {
+                if (operation.key().equals(key)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + key);
+        }
+    }
+
+    private final String baseUrl;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final List<Long> seededIds = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Long> createdIds = new ConcurrentLinkedQueue<>();
+    private final AtomicLong phones = new AtomicLong();
+
+    Workload(String baseUrl, String mix) {
+        this.baseUrl = baseUrl;
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] keyAndWeight = entry.trim().split("=");
+            weights.put(Operation.of(keyAndWeight[0].trim()), Integer.parseInt(keyAndWeight[1].trim()));
+        }
+        operations = weights.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += weights.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Creates the users the reads and updates work on, in batches.
+     */
+    void seed(int users) throws IOException {
+        for (int first = 0; first < users; first += 1000) {
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = first; i < Math.min(first + 1000, users); i++) {
+                batch.append(i == first ? "" : ",").append(userJson(null, "User " + i, "seed-" + i));
+            }
+            Response response = send("POST", "/batch", batch.append("]").toString());
+            if (response.status != 200) {
+                throw new IOException("Seeding failed with " + response.status);
+            }
+            Matcher ids = ID.matcher(response.body);
+            while (ids.find()) {
+                seededIds.add(Long.parseLong(ids.group(1)));
+            }
+        }
+    }
+
+    Operation next() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Sends one request of the operation and tells whether it failed.
+     */
+    boolean execute(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            switch (operation) {
+                case GET:
+                    return send("GET", "/" + seededId(random), null).status != 200;
+                case SEARCH:
+                    return send("GET", "/name/User%20" + random.nextInt(1, 100) + "?limit=20", null).status != 200;
+                case CREATE: {
+                    Response response = send("POST", "", userJson(null, "Load", "load-" + phones.incrementAndGet()));
+                    Matcher id = ID.matcher(response.body);
+                    if (response.status == 200 && id.find()) {
+                        createdIds.add(Long.parseLong(id.group(1)));
+                        return false;
+                    }
+                    return true;
+                }
+                case UPDATE: {
+                    int index = random.nextInt(seededIds.size());
+                    String json = userJson(seededIds.get(index), "User " + index + " " + random.nextInt(1000), "seed-" + index);
+                    return send("PUT", "", json).status != 200;
+                }
+                case DELETE: {
+                    Long id = createdIds.poll();
+                    // with nothing created yet, delete a user that does not exist, which still costs a statement
+                    int status = send("DELETE", "/" + (id == null ? Long.MAX_VALUE : id), null).status;
+                    return status != 200 && status != 404;
+                }
+                default:
+                    throw new IllegalArgumentException(operation.name());
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private long seededId(ThreadLocalRandom random) {
+        return seededIds.get(random.nextInt(seededIds.size()));
+    }
+
+    private Response send(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String responseBody = "";
+        if (in != null) {
+            // read to the end, so the connection goes back to the keep-alive pool
+            try (InputStream stream = in) {
+                responseBody = new String(readAll(stream), StandardCharsets.UTF_8);
+            }
+        }
+        return new Response(status, responseBody);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String userJson(Long id, String name, String phone) {
+        return "{" + (id == null ? "" : "\"id\":" + id + ",") + "\"name\":\"" + name + "\",\"phone\":\"" + phone + "\"}";
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}